@@ -0,0 +1,41 @@
+package dict;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * {@link LookupBenchmark} with single-key writes as well. Writes replace definitions with ones from a small pool,
+ * so the dictionary keeps its size.
+ */
+public abstract class AccessBenchmark extends LookupBenchmark {
+    static final int DEFINITION_POOL = 1024;
+
+    String[] definitions;
+
+    @Setup(Level.Trial)
+    public void setUpDefinitions() {
+        definitions = new String[DEFINITION_POOL];
+        for (int i = 0; i < DEFINITION_POOL; ++i) {
+            definitions[i] = Fixtures.definition(-i);
+        }
+    }
+
+    @Benchmark
+    public String put(Cursor cursor) {
+        int next = cursor.next();
+        return dict.put(keys[sample[next]], definitions[next & (DEFINITION_POOL - 1)]);
+    }
+
+    /**
+     * Remove a key and put it back, so that the next removes don't find the dictionary emptier.
+     */
+    @Benchmark
+    public String removeAndPutBack(Cursor cursor) {
+        int next = cursor.next();
+        String key = keys[sample[next]];
+        String removed = dict.remove(key);
+        dict.put(key, removed != null ? removed : definitions[next & (DEFINITION_POOL - 1)]);
+        return removed;
+    }
+}
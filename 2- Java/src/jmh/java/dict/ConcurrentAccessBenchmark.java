@@ -0,0 +1,17 @@
+package dict;
+
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+
+/**
+ * {@link AccessBenchmark} on a {@link ConcurrentDictionary} used by a single thread, to compare with
+ * {@link InMemoryAccessBenchmark} and {@link ContendedAccessBenchmark}.
+ */
+@Threads(1)
+public class ConcurrentAccessBenchmark extends AccessBenchmark {
+    @Override
+    PersistentDictionary create(File file) {
+        return new ConcurrentDictionary(file);
+    }
+}
@@ -0,0 +1,11 @@
+package dict;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * {@link ConcurrentAccessBenchmark} with 4 threads sharing the dictionary (-t on the command line picks another
+ * count). With {@link KeyDistribution#ZIPFIAN} keys, the threads mostly write the same few keys.
+ */
+@Threads(4)
+public class ContendedAccessBenchmark extends ConcurrentAccessBenchmark {
+}
@@ -0,0 +1,49 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TreeMap;
+
+/**
+ * The keys, definitions and dictionary files the benchmarks work on.
+ */
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    static String key(int index) {
+        return "word" + index;
+    }
+
+    static String definition(int index) {
+        return "The definition of word number " + index + ", as long as a short dictionary definition.";
+    }
+
+    static String[] keys(int entries) {
+        String[] keys = new String[entries];
+        for (int i = 0; i < entries; ++i) {
+            keys[i] = key(i);
+        }
+        return keys;
+    }
+
+    /**
+     * Create a temporary dictionary file, removed when the JVM exits.
+     */
+    static File createFile(String name, DictionaryFormat format, int entries) throws IOException {
+        File file = File.createTempFile(name, ".dict");
+        file.deleteOnExit();
+        new File(file.getPath() + ".delta").deleteOnExit();
+        TreeMap<String, String> contents = new TreeMap<>();
+        for (int i = 0; i < entries; ++i) {
+            contents.put(key(i), definition(i));
+        }
+        format.write(file, contents);
+        return file;
+    }
+
+    static void delete(File file) {
+        file.delete();
+        new File(file.getPath() + ".delta").delete();
+    }
+}
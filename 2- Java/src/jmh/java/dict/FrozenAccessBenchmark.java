@@ -0,0 +1,17 @@
+package dict;
+
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+
+/**
+ * {@link LookupBenchmark} on a {@link FrozenDictionary}, to compare with the lookups of
+ * {@link InMemoryAccessBenchmark}.
+ */
+@Threads(1)
+public class FrozenAccessBenchmark extends LookupBenchmark {
+    @Override
+    PersistentDictionary create(File file) {
+        return new FrozenDictionary(file);
+    }
+}
@@ -0,0 +1,16 @@
+package dict;
+
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+
+/**
+ * {@link AccessBenchmark} on an {@link InMemoryDictionary}, which may only be used by one thread.
+ */
+@Threads(1)
+public class InMemoryAccessBenchmark extends AccessBenchmark {
+    @Override
+    PersistentDictionary create(File file) {
+        return new InMemoryDictionary(file);
+    }
+}
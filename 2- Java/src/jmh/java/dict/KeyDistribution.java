@@ -0,0 +1,53 @@
+package dict;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * How a benchmark picks the keys it accesses.
+ */
+public enum KeyDistribution {
+    /**
+     * Every key is equally likely.
+     */
+    UNIFORM,
+
+    /**
+     * The key of rank r is picked with a probability proportional to 1 / r^0.99, as in YCSB: a handful of hot
+     * keys take most of the accesses. Ranks are scattered over the keys, so that the hot keys are not neighbours.
+     */
+    ZIPFIAN;
+
+    static final double ZIPF_EXPONENT = 0.99;
+    private static final long SCATTER = 1_000_003; // a prime, so scattering is a permutation of any key count it doesn't divide
+
+    /**
+     * @param keys  the number of keys
+     * @param count the number of keys to pick
+     * @param seed  the seed of the random picks
+     * @return the indices of the keys picked, in [0, keys)
+     */
+    int[] sample(int keys, int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] sample = new int[count];
+        if (this == UNIFORM) {
+            for (int i = 0; i < count; ++i) {
+                sample[i] = random.nextInt(keys);
+            }
+            return sample;
+        }
+
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int rank = 0; rank < keys; ++rank) {
+            sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            cumulative[rank] = sum;
+        }
+        for (int i = 0; i < count; ++i) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            if (rank < 0) rank = Math.min(-rank - 1, keys - 1);
+            sample[i] = (int) (rank * SCATTER % keys);
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,82 @@
+package dict;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-key lookups on an open dictionary, with the keys picked from a {@link KeyDistribution}.
+ * Subclasses pick the dictionary, and the number of threads. Read-only dictionaries are benchmarked directly
+ * through this class; {@link AccessBenchmark} adds the writes.
+ * <p>
+ * The keys of each run are drawn beforehand, so the benchmarks themselves only index an array.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public abstract class LookupBenchmark {
+    static final int SAMPLE_SIZE = 1 << 20; // keys drawn per run; a power of 2
+
+    @Param({"100000", "1000000"})
+    public int entries;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    PersistentDictionary dict;
+    private File file;
+    String[] keys;
+    int[] sample; // indices of keys
+
+    /**
+     * @return the dictionary to benchmark, stored in the file.
+     */
+    abstract PersistentDictionary create(File file) throws IOException;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Fixtures.createFile(getClass().getSimpleName(), DictionaryFormat.TEXT, entries);
+        dict = create(file);
+        dict.open();
+        keys = Fixtures.keys(entries);
+        sample = distribution.sample(entries, SAMPLE_SIZE, 19);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.delete(file); //never closed, the changes are not written
+    }
+
+    /**
+     * Where a thread is in the sample. Threads start at different points of it.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams thread) {
+            next = thread.getThreadIndex() * (SAMPLE_SIZE / Math.max(1, thread.getThreadCount()));
+        }
+
+        int next() {
+            return next++ & (SAMPLE_SIZE - 1);
+        }
+    }
+
+    @Benchmark
+    public String get(Cursor cursor) {
+        return dict.get(keys[sample[cursor.next()]]);
+    }
+
+    @Benchmark
+    public boolean containsKey(Cursor cursor) {
+        return dict.containsKey(keys[sample[cursor.next()]]);
+    }
+}
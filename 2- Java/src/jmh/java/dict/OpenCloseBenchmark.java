@@ -0,0 +1,88 @@
+package dict;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and writing an {@link InMemoryDictionary}, for each file format and a range of file sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class OpenCloseBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    @Param({"TEXT", "BINARY", "COMPRESSED"})
+    public DictionaryFormat format;
+
+    InMemoryDictionary dict;
+    private File file;
+    private int changes; // the number of the next change
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Fixtures.createFile("OpenCloseBenchmark", format, entries);
+        dict = new InMemoryDictionary(file, format);
+        dict.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.delete(file);
+    }
+
+    /**
+     * Load the whole file (and its delta, if the close benchmarks left one).
+     */
+    @Benchmark
+    public int open() throws IOException {
+        dict.open();
+        return dict.size();
+    }
+
+    /**
+     * Makes one change before each close, as an editor saving after every edit would.
+     */
+    @State(Scope.Thread)
+    public static class OneChange {
+        @Setup(Level.Invocation)
+        public void change(OpenCloseBenchmark benchmark) {
+            int change = benchmark.changes++;
+            benchmark.dict.put(Fixtures.key(change % benchmark.entries), Fixtures.definition(-change));
+        }
+    }
+
+    /**
+     * Close after a single change: usually an append to the delta, and now and then a merge into the file.
+     */
+    @Benchmark
+    public void closeAfterChange(OneChange change) throws IOException {
+        dict.close();
+    }
+
+    /**
+     * Removes the file before each close.
+     */
+    @State(Scope.Thread)
+    public static class NoFile {
+        @Setup(Level.Invocation)
+        public void delete(OpenCloseBenchmark benchmark) {
+            Fixtures.delete(benchmark.file);
+        }
+    }
+
+    /**
+     * Close with no file to update: the whole dictionary is written.
+     */
+    @Benchmark
+    public void closeRewrite(NoFile noFile) throws IOException {
+        dict.close();
+    }
+}
@@ -0,0 +1,21 @@
+package dict;
+
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link LookupBenchmark} on a {@link PerfectHashDictionary}, to compare with the lookups of
+ * {@link InMemoryAccessBenchmark} and {@link FrozenAccessBenchmark}.
+ */
+@Threads(1)
+public class PerfectHashAccessBenchmark extends LookupBenchmark {
+    @Override
+    PersistentDictionary create(File file) throws IOException {
+        InMemoryDictionary source = new InMemoryDictionary(file);
+        source.open();
+        PerfectHashDictionary.build(file, source); //replaces the text file, which was loaded already
+        return new PerfectHashDictionary(file);
+    }
+}
@@ -0,0 +1,69 @@
+package dict;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces files so that a crash at any point leaves either the old contents or the new ones.
+ * <p>
+ * The new contents are written to a temporary file next to the target, forced to disk, and renamed over
+ * the target; then the directory is forced too, so that the rename itself survives a power failure.
+ */
+final class AtomicFile {
+    private AtomicFile() {
+    }
+
+    /**
+     * Writes the new contents of a file to a stream.
+     */
+    interface Contents {
+        /**
+         * Write the contents. Any buffering wrapped around the stream must be flushed, but not closed.
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Atomically and durably replace the contents of the file.
+     *
+     * @throws IOException if the contents could not be written; the file is then unchanged.
+     */
+    static void write(File file, Contents contents) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            contents.writeTo(out);
+            out.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        replace(tmp, file);
+    }
+
+    /**
+     * Rename a file that was already forced to disk over the target, and force the rename.
+     */
+    static void replace(File source, File target) throws IOException {
+        Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(target);
+    }
+
+    /**
+     * Force the directory holding the file, so that its creation or renaming is durable.
+     * This is best effort: some platforms (Windows) can't open a directory, and order their metadata anyway.
+     */
+    static void syncDirectory(File file) {
+        File directory = file.getAbsoluteFile().getParentFile();
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported here
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package dict;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Reads and writes the binary dictionary format.
+ * <p>
+ * The file starts with a header:
+ * <pre>magic:4 bytes ("\0DIC") version:byte generation:long count:int</pre>
+ * where the generation is a random number picked for every write (see {@link DictionaryFormat#generation}),
+ * followed by count entries, each a key and a definition encoded as
+ * <pre>length:varint bytes</pre>
+ * where the bytes are UTF-8 and the length is an unsigned LEB128 varint.
+ * Entries are written in the map's order, which lets the reader build a sorted map in linear time.
+ */
+final class BinaryFormat {
+    static final byte[] MAGIC = {0, 'D', 'I', 'C'};
+    static final int VERSION = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryFormat() {
+    }
+
+    static void read(File file, Map<String, String> map) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            in.require(MAGIC.length + 13);
+            for (byte b : MAGIC) {
+                if (in.buffer.get() != b) {
+                    throw new IOException(file + " is not a binary dictionary file");
+                }
+            }
+            int version = in.buffer.get();
+            if (version != VERSION) {
+                throw new IOException(file + " has unsupported version " + version);
+            }
+            in.buffer.getLong(); //the generation
+            int count = in.buffer.getInt();
+            if (count < 0) {
+                throw new IOException(file + " has a corrupt header");
+            }
+
+            String[] keys = new String[count]; //the count lets us size the arrays up front
+            String[] values = new String[count];
+            boolean sorted = true;
+            for (int i = 0; i < count; ++i) {
+                keys[i] = in.readString();
+                values[i] = in.readString();
+                if (i > 0 && sorted && keys[i - 1].compareTo(keys[i]) >= 0) {
+                    sorted = false;
+                }
+            }
+
+            if (sorted && map.isEmpty()) {
+                map.putAll(new SortedArrayMap(keys, values, count)); //lets a TreeMap build itself in linear time
+            } else {
+                for (int i = 0; i < count; ++i) {
+                    map.put(keys[i], values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write all the entries of the map to the file, replacing its contents atomically (see {@link AtomicFile}).
+     */
+    static void write(File file, Map<String, String> map) throws IOException {
+        AtomicFile.write(file, stream -> {
+            OutputStream out = new BufferedOutputStream(stream, BUFFER_SIZE);
+            out.write(MAGIC);
+            out.write(VERSION);
+            long generation = DictionaryFormat.newGeneration();
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (generation >>> shift));
+            }
+            int count = map.size();
+            out.write(count >>> 24);
+            out.write(count >>> 16);
+            out.write(count >>> 8);
+            out.write(count);
+
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+            out.flush();
+        });
+    }
+
+    /**
+     * @return the generation in the header of the file.
+     */
+    static long generation(File file) throws IOException {
+        byte[] head = new byte[MAGIC.length + 9];
+        if (DictionaryFormat.readHead(file, head) < head.length) {
+            throw new EOFException("Unexpected end of dictionary file");
+        }
+        return ByteBuffer.wrap(head).getLong(MAGIC.length + 1);
+    }
+
+    private static void writeString(OutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * A buffered reader over a channel that hands out slices of its buffer instead of copying.
+     */
+    private static final class Input {
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        Input(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip(); //start out empty
+        }
+
+        /**
+         * Make sure the buffer holds at least n unread bytes.
+         */
+        void require(int n) throws IOException {
+            if (buffer.remaining() >= n) return;
+            if (buffer.capacity() < n) { //a single string longer than the buffer
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(n, buffer.capacity() * 2));
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+            while (buffer.position() < n) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Unexpected end of dictionary file");
+                }
+            }
+            buffer.flip();
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                require(1);
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Malformed length in dictionary file");
+        }
+
+        String readString() throws IOException {
+            int length = readVarint();
+            if (length < 0) {
+                throw new IOException("Malformed length in dictionary file");
+            }
+            require(length);
+            String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return s;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package dict;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A Bloom filter over string keys: {@link #mightContain} never returns false for a key that was added,
+ * and returns true for a key that wasn't with a small probability (about 1% at 10 bits per key).
+ * <p>
+ * The bit positions are derived from a single 64-bit hash of the key by double hashing.
+ */
+final class BloomFilter {
+    static final int BITS_PER_KEY = 10;
+    static final int HASHES = 7; // optimal for 10 bits per key (10 * ln 2)
+
+    private final long[] bits;
+    private final int hashes;
+
+    /**
+     * Create an empty filter sized for the given number of keys.
+     */
+    BloomFilter(int expectedKeys) {
+        this(new long[(int) Math.max(1, ((long) Math.max(expectedKeys, 1) * BITS_PER_KEY + 63) / 64)], HASHES);
+    }
+
+    private BloomFilter(long[] bits, int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    void add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long size = bits.length * 64L;
+        for (int i = 0; i < hashes; ++i) {
+            long bit = ((h1 + i * h2) & 0xFFFFFFFFL) % size;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long size = bits.length * 64L;
+        for (int i = 0; i < hashes; ++i) {
+            long bit = ((h1 + i * h2) & 0xFFFFFFFFL) % size;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of the key, with a final mix.
+     */
+    private static long hash(String key) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); ++i) {
+            h = (h ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(hashes);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    static BloomFilter read(DataInput in) throws IOException {
+        int hashes = in.readInt();
+        int words = in.readInt();
+        if (hashes <= 0 || words <= 0) {
+            throw new IOException("Corrupt Bloom filter");
+        }
+        long[] bits = new long[words];
+        for (int i = 0; i < words; ++i) {
+            bits[i] = in.readLong();
+        }
+        return new BloomFilter(bits, hashes);
+    }
+}
@@ -0,0 +1,332 @@
+package dict;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A read cache in front of another persistent dictionary, for dictionaries whose lookups go to disk
+ * (such as {@link MappedDictionary} or {@link LsmDictionary}).
+ * <p>
+ * The cache is a segmented LRU: a key that is looked up for the first time enters the probationary
+ * segment, and moves to the protected segment if it is looked up again while still cached. Only
+ * {@link #PROTECTED_SHARE} of the budget is protected, and the least recently used protected keys
+ * are demoted back to probation. Evictions take the least recently used probationary key, so a scan
+ * over many keys that are used once only replaces other probationary keys, never the hot ones.
+ * <p>
+ * Keys that are not in the dictionary are cached too, so repeated misses don't reach the disk either.
+ * Writes go straight to the wrapped dictionary and update the cached entry, and {@link #open()},
+ * {@link #close()} and {@link #clear()} empty the cache. Like the dictionaries it wraps, it is not thread-safe.
+ */
+public class CachingDictionary implements PersistentDictionary {
+    /**
+     * How the cache budget is measured.
+     */
+    public enum Budget {
+        /**
+         * The number of cached keys.
+         */
+        ENTRIES,
+        /**
+         * The (estimated) memory taken by the cached keys and definitions.
+         */
+        BYTES
+    }
+
+    /**
+     * The part of the budget that the protected segment may use.
+     */
+    static final double PROTECTED_SHARE = 0.8;
+
+    private static final int ENTRY_OVERHEAD = 64; // estimated bytes per cached entry, besides the strings
+    // Cached for keys that are not in the dictionary. Compare with ==.
+    private static final String ABSENT = new String("<absent>");
+
+    private final PersistentDictionary dict;
+    private final Budget unit;
+    private final long budget;
+
+    // Both in access order, least recently used first.
+    private final LinkedHashMap<String, String> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, String> protectedKeys = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationWeight;
+    private long protectedWeight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param dict   the dictionary to cache
+     * @param budget the maximal number of cached keys
+     */
+    public CachingDictionary(PersistentDictionary dict, int budget) {
+        this(dict, budget, Budget.ENTRIES);
+    }
+
+    /**
+     * @param dict   the dictionary to cache
+     * @param budget the size of the cache, in the given unit
+     * @param unit   how the size of the cache is measured
+     */
+    public CachingDictionary(PersistentDictionary dict, long budget, Budget unit) {
+        if (dict == null) {
+            throw new IllegalArgumentException("Dictionary cannot be null.");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("Budget unit cannot be null.");
+        }
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Cache budget must be positive.");
+        }
+        this.dict = dict;
+        this.budget = budget;
+        this.unit = unit;
+    }
+
+    /**
+     * @return the number of lookups that were answered from the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that went to the wrapped dictionary.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of keys that were dropped from the cache to stay within the budget.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of cached keys, including keys cached as missing.
+     */
+    public int getCachedCount() {
+        return probation.size() + protectedKeys.size();
+    }
+
+    /**
+     * @return the size of the cache in the unit of its budget: the number of cached keys, or their
+     * estimated memory in bytes.
+     */
+    public long getCachedWeight() {
+        return probationWeight + protectedWeight;
+    }
+
+    @Override
+    public void open() throws IOException {
+        invalidateAll();
+        dict.open();
+    }
+
+    @Override
+    public void close() throws IOException {
+        invalidateAll();
+        dict.close();
+    }
+
+    /*======= Reading and writing ======*/
+
+    @Override
+    public String get(Object key) {
+        String word = (String) Objects.requireNonNull(key, "Key cannot be null.");
+        String value = protectedKeys.get(word);
+        if (value == null) {
+            value = probation.remove(word);
+            if (value != null) { //a second lookup, promote it
+                probationWeight -= weight(word, value);
+                protect(word, value);
+            }
+        }
+        if (value != null) {
+            hits++;
+            return value == ABSENT ? null : value;
+        }
+
+        misses++;
+        value = dict.get(word);
+        admit(word, value == null ? ABSENT : value);
+        return value;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        String previous = dict.put(key, value);
+        update(key, value);
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> batch) {
+        dict.putAll(batch);
+        for (Map.Entry<? extends String, ? extends String> entry : batch.entrySet()) {
+            update(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Answers the cached keys from the cache, and looks up all the others in the wrapped dictionary
+     * with a single batch.
+     */
+    @Override
+    public SortedMap<String, String> getAll(Collection<? extends String> keys) {
+        SortedMap<String, String> found = new TreeMap<>();
+        Set<String> uncached = new LinkedHashSet<>();
+        for (String key : keys) {
+            Objects.requireNonNull(key, "Key cannot be null.");
+            if (protectedKeys.containsKey(key) || probation.containsKey(key)) {
+                String value = get(key); //counts the hit and promotes the key
+                if (value != null) found.put(key, value);
+            } else {
+                uncached.add(key);
+            }
+        }
+        if (uncached.isEmpty()) return found;
+
+        misses += uncached.size();
+        SortedMap<String, String> fetched = dict.getAll(uncached);
+        for (String key : uncached) {
+            String value = fetched.get(key);
+            admit(key, value == null ? ABSENT : value);
+        }
+        found.putAll(fetched);
+        return found;
+    }
+
+    @Override
+    public int removeAll(Collection<? extends String> keys) {
+        int removed = dict.removeAll(keys);
+        for (String key : keys) {
+            update(key, ABSENT);
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return dict.size();
+    }
+
+    @Override
+    public String remove(Object key) {
+        String previous = dict.remove(key);
+        update((String) key, ABSENT);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        dict.clear();
+        invalidateAll();
+    }
+
+    /**
+     * Scans are not cached, so that they don't push the hot keys out.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        return dict.range(from, to);
+    }
+
+    /*======= The cache ======*/
+
+    private long weight(String key, String value) {
+        if (unit == Budget.ENTRIES) return 1;
+        return ENTRY_OVERHEAD + 2L * key.length() + (value == ABSENT ? 0 : 2L * value.length());
+    }
+
+    /**
+     * Cache a key that was just read from the wrapped dictionary, on probation.
+     */
+    private void admit(String key, String value) {
+        long weight = weight(key, value);
+        if (weight > budget) return; //would evict everything else
+
+        probation.put(key, value);
+        probationWeight += weight;
+        evict();
+    }
+
+    /**
+     * Move a key to the protected segment, and demote the least recently used protected keys
+     * to probation if it is over its share.
+     */
+    private void protect(String key, String value) {
+        protectedKeys.put(key, value);
+        protectedWeight += weight(key, value);
+
+        long share = Math.max(1, (long) (budget * PROTECTED_SHARE));
+        Iterator<Map.Entry<String, String>> oldest = protectedKeys.entrySet().iterator();
+        while (protectedWeight > share && protectedKeys.size() > 1) {
+            Map.Entry<String, String> demoted = oldest.next();
+            long weight = weight(demoted.getKey(), demoted.getValue());
+            oldest.remove();
+            protectedWeight -= weight;
+            probation.put(demoted.getKey(), demoted.getValue());
+            probationWeight += weight;
+        }
+        evict();
+    }
+
+    /**
+     * Drop the least recently used keys until the cache is within its budget, taking probationary keys first.
+     */
+    private void evict() {
+        while (probationWeight + protectedWeight > budget) {
+            boolean fromProbation = !probation.isEmpty();
+            Iterator<Map.Entry<String, String>> oldest =
+                    (fromProbation ? probation : protectedKeys).entrySet().iterator();
+            Map.Entry<String, String> evicted = oldest.next();
+            long weight = weight(evicted.getKey(), evicted.getValue());
+            oldest.remove();
+            if (fromProbation) {
+                probationWeight -= weight;
+            } else {
+                protectedWeight -= weight;
+            }
+            evictions++;
+        }
+    }
+
+    /**
+     * Replace the cached definition of a key that was written, if the key is cached.
+     */
+    private void update(String key, String value) {
+        if (protectedKeys.containsKey(key)) {
+            protectedWeight += weight(key, value) - weight(key, protectedKeys.get(key));
+            protectedKeys.put(key, value);
+        } else if (probation.containsKey(key)) {
+            probationWeight += weight(key, value) - weight(key, probation.get(key));
+            probation.put(key, value);
+        } else {
+            return;
+        }
+        evict();
+    }
+
+    private void invalidateAll() {
+        probation.clear();
+        protectedKeys.clear();
+        probationWeight = 0;
+        protectedWeight = 0;
+    }
+}
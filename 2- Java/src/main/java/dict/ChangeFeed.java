@@ -0,0 +1,351 @@
+package dict;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An ordered, tailable stream of dictionary changes, written by a {@link PublishingDictionary} and followed by
+ * any number of {@link FollowerDictionary} instances, which may be in other processes.
+ * <p>
+ * The feed is a text file in UTF-8. Its first line names it:
+ * <pre>#change-feed id previousId</pre>
+ * where id is a random number picked whenever the feed file is rewritten, and previousId is the id of the feed
+ * it replaced (0 for a new feed). It is followed by batches of the records of {@link ChangeLog}, each starting
+ * with its sequence number and the time it was published:
+ * <pre>
+ * &#64;sequence publishedMillis
+ * +word:def   put
+ * -word       remove
+ * !           clear
+ * .           end of batch
+ * </pre>
+ * Batches are appended and forced to disk one at a time, with increasing sequence numbers. A reader only
+ * consumes complete batches: one that is still being written is read by the next poll, and one that was cut
+ * short by a crash is ignored.
+ * <p>
+ * The first batch of a feed is a snapshot, that clears the dictionary and puts all of its entries, numbered like
+ * the last batch it includes. Once the batches outgrow the dictionary, the writer rewrites the feed as a single
+ * snapshot. Sequence numbers go on across the rewrite, so a follower that was reading the previous feed skips
+ * the snapshot and goes on with the next batch, while one that missed batches reloads from the snapshot.
+ */
+final class ChangeFeed {
+    static final String HEADER = "#change-feed";
+
+    /**
+     * A batch of changes, as read from the feed.
+     */
+    static final class Batch {
+        final long sequence;
+        final long publishedMillis;
+        boolean cleared; // whether the dictionary is cleared before the changes are applied
+        final Map<String, String> changes = new LinkedHashMap<>(); // null for removed keys
+
+        Batch(long sequence, long publishedMillis) {
+            this.sequence = sequence;
+            this.publishedMillis = publishedMillis;
+        }
+    }
+
+    /**
+     * Receives the batches read from the feed.
+     */
+    interface BatchHandler {
+        /**
+         * @return false to stop reading after this batch
+         */
+        boolean accept(Batch batch);
+    }
+
+    /**
+     * Where a reader stands in the feed.
+     */
+    static final class Cursor {
+        long id; // the id of the feed being read, 0 before the first read
+        long position; // the offset just after the last complete batch that was read
+        long sequence = -1; // the last batch that was accepted, -1 if none
+
+        Cursor copy() {
+            Cursor copy = new Cursor();
+            copy.id = id;
+            copy.position = position;
+            copy.sequence = sequence;
+            return copy;
+        }
+    }
+
+    private final File feedFile;
+    private long id;
+    private long sequence = -1; // the last batch written
+    private long records; // the records in the feed, including the snapshot
+
+    ChangeFeed(File feedFile) {
+        this.feedFile = feedFile;
+    }
+
+    File getFile() {
+        return feedFile;
+    }
+
+    /**
+     * @return the id of the feed file, as seen by the last recovery or rewrite; 0 if there is none.
+     */
+    long getId() {
+        return id;
+    }
+
+    /**
+     * @return the sequence number of the last batch written, -1 if none.
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the number of records in the feed, as seen by the last recovery, append or rewrite.
+     */
+    long getRecords() {
+        return records;
+    }
+
+    /*======= Writing ======*/
+
+    /**
+     * Find the last batch of an existing feed, so that the next ones are appended after it.
+     *
+     * @return false if there is no readable feed file; a new feed must then be started with {@link #rewrite}.
+     */
+    boolean recover() throws IOException {
+        Cursor end = new Cursor();
+        records = 0;
+        if (!read(end, batch -> {
+            records += batch.changes.size() + (batch.cleared ? 1 : 0);
+            return true;
+        })) {
+            id = 0;
+            sequence = -1;
+            return false;
+        }
+        id = end.id;
+        sequence = end.sequence;
+        return true;
+    }
+
+    /**
+     * Append a batch and force it to disk.
+     *
+     * @param cleared whether the dictionary was cleared before the changes were made
+     * @param changes the changed keys, mapped to their new definition or to null if they were removed
+     * @return the sequence number of the batch
+     */
+    long append(boolean cleared, Map<String, String> changes) throws IOException {
+        long next = sequence + 1;
+        try (FileOutputStream out = new FileOutputStream(feedFile, true)) {
+            BufferedWriter write = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            if (!endsWithNewLine()) {
+                write.newLine(); //a torn line from an earlier crash must not swallow our first record
+            }
+            writeBatch(write, next, cleared, changes.entrySet().iterator());
+            write.flush();
+            out.getFD().sync(); //the batch is durable once we return
+        }
+        sequence = next;
+        records += changes.size() + (cleared ? 1 : 0);
+        return next;
+    }
+
+    /**
+     * Atomically replace the feed by a single snapshot of the dictionary, numbered like the last batch.
+     * A new feed (with no batch yet) starts at sequence 0.
+     *
+     * @param entries   all the entries of the dictionary
+     * @param supersede whether to number the snapshot after the last batch instead, so that followers which
+     *                  applied that batch apply the snapshot too; for a dictionary that may not hold the batch
+     */
+    void rewrite(Iterator<Map.Entry<String, String>> entries, boolean supersede) throws IOException {
+        long newId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        long snapshot = supersede ? sequence + 1 : Math.max(sequence, 0);
+        long[] written = {0};
+        AtomicFile.write(feedFile, out -> {
+            BufferedWriter write = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            write.write(HEADER + " " + newId + " " + id);
+            write.newLine();
+            written[0] = writeBatch(write, snapshot, true, entries);
+            write.flush();
+        });
+        id = newId;
+        sequence = snapshot;
+        records = written[0];
+    }
+
+    /**
+     * @return the number of records written.
+     */
+    private static long writeBatch(BufferedWriter write, long sequence, boolean cleared,
+                                   Iterator<? extends Map.Entry<String, String>> changes) throws IOException {
+        long count = 0;
+        write.write("@" + sequence + " " + System.currentTimeMillis());
+        write.newLine();
+        if (cleared) {
+            write.write('!');
+            write.newLine();
+            count++;
+        }
+        while (changes.hasNext()) {
+            Map.Entry<String, String> change = changes.next();
+            if (change.getValue() == null) {
+                write.write('-');
+                write.write(ChangeLog.escape(change.getKey(), true));
+            } else {
+                write.write('+');
+                write.write(ChangeLog.escape(change.getKey(), true));
+                write.write(':');
+                write.write(ChangeLog.escape(change.getValue(), false));
+            }
+            write.newLine();
+            count++;
+        }
+        write.write('.');
+        write.newLine();
+        return count;
+    }
+
+    private boolean endsWithNewLine() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(feedFile, "r")) {
+            long length = file.length();
+            if (length == 0) return true;
+            file.seek(length - 1);
+            int last = file.read();
+            return last == '\n' || last == '\r';
+        }
+    }
+
+    /*======= Reading ======*/
+
+    /**
+     * Read the complete batches after the cursor, and pass the ones numbered after its sequence to the handler.
+     * If the feed was rewritten since the cursor's last read, reading starts over from its snapshot, and the
+     * cursor's sequence is kept only if the new feed follows on from the one it read.
+     *
+     * @return false if there is no feed file, or it is not a feed.
+     */
+    boolean read(Cursor cursor, BatchHandler handler) throws IOException {
+        if (!feedFile.exists()) return false;
+        try (LineReader read = new LineReader(new FileInputStream(feedFile))) {
+            String header = read.readLine();
+            long[] ids = header == null ? null : parseHeader(header);
+            if (ids == null) return false;
+
+            if (ids[0] != cursor.id) {
+                if (cursor.id == 0 || ids[1] != cursor.id) {
+                    cursor.sequence = -1; //batches may have been lost with the old feed: reload from the snapshot
+                }
+                cursor.id = ids[0];
+                cursor.position = read.position();
+            } else {
+                read.skipTo(cursor.position);
+            }
+
+            Batch batch = null;
+            String line;
+            while ((line = read.readLine()) != null) {
+                if (line.startsWith("@")) {
+                    batch = parseBatchStart(line); //drops a batch that was cut short
+                } else if (batch == null) {
+                    continue; //records of a torn batch
+                } else if (line.equals(".")) {
+                    cursor.position = read.position();
+                    if (batch.sequence > cursor.sequence) {
+                        cursor.sequence = batch.sequence;
+                        if (!handler.accept(batch)) break;
+                    }
+                    batch = null;
+                } else if (line.equals("!")) {
+                    batch.cleared = true;
+                    batch.changes.clear();
+                } else if (line.startsWith("+")) {
+                    int index = line.indexOf(':');
+                    if (index >= 0) {
+                        batch.changes.put(ChangeLog.unescape(line.substring(1, index)), ChangeLog.unescape(line.substring(index + 1)));
+                    }
+                } else if (line.startsWith("-")) {
+                    batch.changes.put(ChangeLog.unescape(line.substring(1)), null);
+                } //unknown record, skip it.
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the id and the previous id, or null if the line is not a feed header.
+     */
+    private static long[] parseHeader(String line) {
+        String[] fields = line.split(" ");
+        if (fields.length != 3 || !fields[0].equals(HEADER)) return null;
+        try {
+            return new long[]{Long.parseLong(fields[1]), Long.parseLong(fields[2])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Batch parseBatchStart(String line) {
+        int space = line.indexOf(' ');
+        try {
+            return new Batch(Long.parseLong(line.substring(1, space)), Long.parseLong(line.substring(space + 1)));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return null; //torn, the records up to the next batch are skipped
+        }
+    }
+
+    /**
+     * Reads UTF-8 lines and counts the bytes consumed, so that reading can resume after the last complete batch.
+     * Unlike {@link BufferedReader}, a last line without its line break (being written) is not returned.
+     */
+    private static final class LineReader implements Closeable {
+        private final InputStream in;
+        private byte[] line = new byte[256];
+        private long position;
+
+        LineReader(InputStream in) {
+            this.in = new BufferedInputStream(in, 1 << 16);
+        }
+
+        long position() {
+            return position;
+        }
+
+        void skipTo(long target) throws IOException {
+            while (position < target) {
+                long skipped = in.skip(target - position);
+                if (skipped <= 0) throw new EOFException("Feed is shorter than the position read");
+                position += skipped;
+            }
+        }
+
+        /**
+         * @return the next line without its line break, or null at the end of the complete lines.
+         */
+        String readLine() throws IOException {
+            int length = 0;
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) return null;
+                if (length == line.length) line = Arrays.copyOf(line, length * 2);
+                line[length++] = (byte) b;
+            }
+            position += length + 1;
+            if (length > 0 && line[length - 1] == '\r') length--;
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
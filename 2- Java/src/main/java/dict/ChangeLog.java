@@ -0,0 +1,241 @@
+package dict;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only log of dictionary changes, kept next to a base file (the snapshot it applies to).
+ * <p>
+ * The log is a text file. Its first line identifies the base file the log was started against:
+ * <pre>#generation</pre>
+ * where generation is the random number written in the base file (see {@link DictionaryFormat#generation}),
+ * so the log of a base that was rewritten since never matches. A base file that has no generation (one
+ * written by hand) is identified by its length and modification time instead:
+ * <pre>#length lastModified</pre>
+ * It is followed by batches of records, one record per line:
+ * <pre>
+ * +word:def   put
+ * -word       remove
+ * !           clear
+ * .           end of batch
+ * </pre>
+ * The log is written in UTF-8. In keys and definitions, '\', line breaks and (in keys) ':' are escaped
+ * as "\\", "\n", "\r" and "\c", so any string can be logged.
+ * <p>
+ * A batch is only applied once its end marker was read, so a batch that was cut short by a crash
+ * is ignored. A log whose header does not match the current base file is stale (the base was rewritten
+ * or deleted since) and is discarded.
+ */
+final class ChangeLog {
+
+    private final File logFile;
+    private int records; // number of records currently in the log
+
+    ChangeLog(File logFile) {
+        this.logFile = logFile;
+    }
+
+    File getFile() {
+        return logFile;
+    }
+
+    /**
+     * @return the number of records in the log, as seen by the last replay or append.
+     */
+    int getRecords() {
+        return records;
+    }
+
+    /**
+     * Apply all complete batches in the log to the map.
+     * If the log does not belong to the given base file it is deleted and nothing is applied.
+     *
+     * @param base the base file the map was loaded from
+     * @param map  the map to apply the changes to
+     * @return true if the log was replayed, false if there was no (valid) log.
+     * @throws IOException
+     */
+    boolean replay(File base, Map<String, String> map) throws IOException {
+        return replay(base, map, true);
+    }
+
+    /**
+     * Apply all complete batches in the log to the map.
+     *
+     * @param base         the base file the map was loaded from
+     * @param map          the map to apply the changes to
+     * @param discardStale whether a log that does not belong to the base file is deleted, or only ignored
+     *                     (by readers that must leave the files as they are)
+     * @return true if the log was replayed, false if there was no (valid) log.
+     * @throws IOException
+     */
+    boolean replay(File base, Map<String, String> map, boolean discardStale) throws IOException {
+        records = 0;
+        if (!logFile.exists()) return false;
+
+        String header = readHeader();
+        if (header == null || !base.exists() || !header.equals(identify(base))) {
+            if (discardStale) delete();
+            return false;
+        }
+
+        try (BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8))) {
+            read.readLine(); //the header, checked above
+            List<String> batch = new ArrayList<>();
+            String line;
+            while ((line = read.readLine()) != null) {
+                if (line.equals(".")) { //batch is complete, apply it.
+                    for (String record : batch) {
+                        apply(record, map);
+                    }
+                    records += batch.size();
+                    batch.clear();
+                } else if (!line.isEmpty()) {
+                    batch.add(line);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Append a single batch of changes to the log and force it to disk, starting a new log if there is no valid one.
+     *
+     * @param base    the base file the log applies to
+     * @param cleared whether the dictionary was cleared before the changes were made
+     * @param changes the changed keys, mapped to their new definition or to null if they were removed
+     * @throws IOException
+     */
+    void append(File base, boolean cleared, Map<String, String> changes) throws IOException {
+        String identity = identify(base);
+        boolean fresh = !logFile.exists() || !identity.equals(readHeader());
+        if (fresh) records = 0;
+
+        try (FileOutputStream out = new FileOutputStream(logFile, !fresh)) {
+            BufferedWriter write = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            if (fresh) {
+                write.write(identity);
+                write.newLine();
+            } else if (!endsWithNewLine()) {
+                write.newLine(); //a torn line from an earlier crash must not swallow our first record
+            }
+
+            if (cleared) {
+                write.write('!');
+                write.newLine();
+                records++;
+            }
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    write.write('-');
+                    write.write(escape(change.getKey(), true));
+                } else {
+                    write.write('+');
+                    write.write(escape(change.getKey(), true));
+                    write.write(':');
+                    write.write(escape(change.getValue(), false));
+                }
+                write.newLine();
+                records++;
+            }
+            write.write('.');
+            write.newLine();
+            write.flush();
+            out.getFD().sync(); //the batch is durable once we return
+        }
+        if (fresh) AtomicFile.syncDirectory(logFile);
+    }
+
+    /**
+     * Remove the log file.
+     */
+    void delete() {
+        logFile.delete();
+        records = 0;
+    }
+
+    private static void apply(String record, Map<String, String> map) {
+        switch (record.charAt(0)) {
+            case '+':
+                int index = record.indexOf(':');
+                if (index >= 0) {
+                    map.put(unescape(record.substring(1, index)), unescape(record.substring(index + 1)));
+                }
+                break;
+            case '-':
+                map.remove(unescape(record.substring(1)));
+                break;
+            case '!':
+                map.clear();
+                break;
+            default: //unknown record, skip it.
+        }
+    }
+
+    static String escape(String s, boolean key) {
+        int i = 0;
+        while (i < s.length() && !needsEscape(s.charAt(i), key)) {
+            i++;
+        }
+        if (i == s.length()) return s; //the common case: nothing to escape
+
+        StringBuilder escaped = new StringBuilder(s.length() + 8).append(s, 0, i);
+        for (; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (!needsEscape(c, key)) {
+                escaped.append(c);
+            } else {
+                escaped.append('\\').append(c == '\n' ? 'n' : c == '\r' ? 'r' : c == ':' ? 'c' : '\\');
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static boolean needsEscape(char c, boolean key) {
+        return c == '\\' || c == '\n' || c == '\r' || (key && c == ':');
+    }
+
+    static String unescape(String s) {
+        int i = s.indexOf('\\');
+        if (i < 0) return s;
+
+        StringBuilder unescaped = new StringBuilder(s.length()).append(s, 0, i);
+        for (; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                unescaped.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next == 'c' ? ':' : next);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * @return the header of a log started against the base file.
+     */
+    private static String identify(File base) throws IOException {
+        long generation = base.exists() ? DictionaryFormat.of(base).generation(base) : 0;
+        return generation != 0 ? "#" + generation : "#" + base.length() + " " + base.lastModified();
+    }
+
+    private String readHeader() throws IOException {
+        try (BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8))) {
+            return read.readLine();
+        }
+    }
+
+    private boolean endsWithNewLine() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r")) {
+            long length = file.length();
+            if (length == 0) return true;
+            file.seek(length - 1);
+            int last = file.read();
+            return last == '\n' || last == '\r';
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Reads and writes the block-compressed dictionary format: a {@link SegmentFile} whose blocks of sorted
+ * entries are compressed with {@link java.util.zip.Deflater}, followed by the block index.
+ * <p>
+ * Loading inflates the blocks one after the other, so only one block is ever held uncompressed.
+ * The same files can also be searched one block at a time through {@link SegmentFile#get}.
+ */
+final class CompressedFormat {
+    private CompressedFormat() {
+    }
+
+    static void read(File file, Map<String, String> map) throws IOException {
+        try (SegmentFile segment = SegmentFile.open(file)) {
+            String[] keys = new String[segment.count()];
+            String[] values = new String[segment.count()];
+            int count = 0;
+            Iterator<Map.Entry<String, String>> entries = segment.iterator(null);
+            try {
+                while (entries.hasNext() && count < keys.length) {
+                    Map.Entry<String, String> entry = entries.next();
+                    if (entry.getValue() == SegmentFile.TOMBSTONE) continue; //not written by us, but harmless
+                    keys[count] = entry.getKey();
+                    values[count] = entry.getValue();
+                    count++;
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            if (map.isEmpty()) {
+                map.putAll(new SortedArrayMap(keys, values, count)); //lets a TreeMap build itself in linear time
+            } else {
+                for (int i = 0; i < count; ++i) {
+                    map.put(keys[i], values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write all the entries of the map to the file, replacing its contents atomically (see {@link AtomicFile}).
+     * Segments must be sorted, so a map that isn't sorted by the natural order of its keys is sorted first.
+     */
+    static void write(File file, Map<String, String> map) throws IOException {
+        SortedMap<String, String> sorted = map instanceof SortedMap && ((SortedMap<String, String>) map).comparator() == null
+                ? (SortedMap<String, String>) map : new TreeMap<>(map);
+        AtomicFile.write(file, out -> SegmentFile.write(out, sorted.entrySet().iterator(), sorted.size(), true,
+                DictionaryFormat.newGeneration()));
+    }
+}
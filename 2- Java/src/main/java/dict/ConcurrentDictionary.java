@@ -0,0 +1,605 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implements a persistent dictionary that may be used by many threads at once.
+ * <p>
+ * The entries are held in a {@link ConcurrentSkipListMap}, so reads never take a lock. Every write creates
+ * a new numbered version of the key, chained to the older versions, and {@link #snapshot()} gives a
+ * consistent read-only view of the dictionary as of the last version, without copying anything: the
+ * snapshot follows each chain to the newest version it may see. Older versions are only kept while a
+ * snapshot that can see them is open, and are dropped by the next write to the key (or a sweep once the
+ * last snapshot is closed). Writers share a lock that taking a snapshot holds exclusively for a moment,
+ * so that no write is half done when the version is picked.
+ * <p>
+ * Flushing writes a snapshot, so the (much slower) write to disk never blocks writers.
+ * The file uses the same <pre>word:def</pre> format as {@link InMemoryDictionary}.
+ * <p>
+ * {@link #flush()} makes the contents durable without closing the dictionary. Flushes requested by several
+ * threads while another flush is writing are committed together by a single write, unless group commit was
+ * turned off when creating the dictionary: then every flush writes a snapshot of its own. Like
+ * {@link InMemoryDictionary}, a flush only appends the keys that changed since the last one to a ".delta"
+ * file next to the dictionary file, and the entire dictionary is rewritten once the delta grows large.
+ * <p>
+ * The dictionary can also checkpoint itself in the background: a daemon thread then flushes every few
+ * milliseconds and after a number of changes, so that {@link #close()} only has to write the few changes
+ * made since the last checkpoint. {@link #flushAsync()} requests a flush on that thread without waiting
+ * for it. A background checkpoint that fails leaves its changes to the next flush.
+ */
+public class ConcurrentDictionary implements PersistentDictionary {
+
+    private final File dictFile;
+    private final ChangeLog delta;
+    private final long checkpointMillis; // 0 for no periodic checkpoints
+    private final int checkpointChanges; // 0 for no checkpoints after a number of changes
+    private final boolean groupCommit;
+    private final ScheduledThreadPoolExecutor checkpointer;
+    private ScheduledFuture<?> periodicCheckpoint; // guarded by checkpointer, null unless open
+
+    private volatile ConcurrentSkipListMap<String, Version> entries = new ConcurrentSkipListMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong clock = new AtomicLong(); // the number of the last version written
+    // The versions of the open snapshots, with how many are open at each. Guarded by itself.
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+    private volatile long oldestSnapshot = Long.MAX_VALUE; // MAX_VALUE if no snapshot is open
+    private final AtomicLong retained = new AtomicLong(); // writes that kept old versions, since the last sweep
+
+    // Writers hold the read lock (any number of them at once), snapshot() and clear() hold the write lock.
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final Object flushLock = new Object(); // one flush to the file at a time
+
+    private final AtomicLong flushRequests = new AtomicLong(); // the number of the last flush request
+    private long committed; // guarded by flushLock. Every flush request up to this number is on disk
+    private long commits; // guarded by flushLock. The number of flushes that wrote a snapshot of their own
+
+    // The keys changed since the last flush. Swapped for an empty set under the snapshot write lock.
+    private volatile Set<String> dirty = ConcurrentHashMap.newKeySet();
+    // Whether the dictionary was cleared since the last flush. Until the first open this is true,
+    // so that closing a dictionary that was never opened replaces whatever was on disk.
+    private volatile boolean cleared = true;
+    private final AtomicInteger sinceCheckpoint = new AtomicInteger(); // changes since the last flush
+
+    public ConcurrentDictionary(File dictFile) {
+        this(dictFile, 0, 0);
+    }
+
+    /**
+     * Create a dictionary that is checkpointed in the background while it is open.
+     *
+     * @param dictFile          the file the dictionary is stored in
+     * @param checkpointMillis  the time between checkpoints in milliseconds, or 0 for no periodic checkpoints
+     * @param checkpointChanges the number of changes that start a checkpoint, or 0 not to count changes
+     */
+    public ConcurrentDictionary(File dictFile, long checkpointMillis, int checkpointChanges) {
+        this(dictFile, checkpointMillis, checkpointChanges, true);
+    }
+
+    /**
+     * Create a dictionary that is checkpointed in the background while it is open.
+     *
+     * @param dictFile          the file the dictionary is stored in
+     * @param checkpointMillis  the time between checkpoints in milliseconds, or 0 for no periodic checkpoints
+     * @param checkpointChanges the number of changes that start a checkpoint, or 0 not to count changes
+     * @param groupCommit       whether flushes that wait for another one are committed together (see {@link #flush()})
+     */
+    public ConcurrentDictionary(File dictFile, long checkpointMillis, int checkpointChanges, boolean groupCommit) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        if (checkpointMillis < 0 || checkpointChanges < 0) {
+            throw new IllegalArgumentException("Checkpoint intervals cannot be negative.");
+        }
+        this.dictFile = dictFile;
+        this.delta = new ChangeLog(new File(dictFile.getPath() + ".delta"));
+        this.checkpointMillis = checkpointMillis;
+        this.checkpointChanges = checkpointChanges;
+        this.groupCommit = groupCommit;
+
+        checkpointer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "checkpoint " + dictFile.getName());
+            thread.setDaemon(true); //never keeps the program alive
+            return thread;
+        });
+        checkpointer.setKeepAliveTime(1, TimeUnit.SECONDS);
+        checkpointer.allowCoreThreadTimeOut(true); //no thread while there is nothing to do
+    }
+
+    /**
+     * @return the file holding the changes that were not merged into the dictionary file yet.
+     */
+    public File getDeltaFile() {
+        return delta.getFile();
+    }
+
+    /**
+     * @return the number of flushes that committed a snapshot, rather than returning because an earlier
+     * one covered them.
+     */
+    long getCommits() {
+        synchronized (flushLock) {
+            return commits;
+        }
+    }
+
+    @Override
+    public void open() throws IOException {
+        TreeMap<String, String> loaded = new TreeMap<>();
+        if (dictFile.exists()) {
+            DictionaryFormat.of(dictFile).read(dictFile, loaded);
+        }
+
+        synchronized (flushLock) {
+            delta.replay(dictFile, loaded); //discards the delta if it doesn't belong to this file
+            snapshotLock.writeLock().lock();
+            try {
+                ConcurrentSkipListMap<String, Version> versions = new ConcurrentSkipListMap<>();
+                for (Map.Entry<String, String> entry : loaded.entrySet()) {
+                    versions.put(entry.getKey(), new Version(0, entry.getValue(), null)); //visible to every snapshot
+                }
+                entries = versions;
+                size.set(loaded.size());
+                dirty = ConcurrentHashMap.newKeySet();
+                cleared = false;
+                sinceCheckpoint.set(0);
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+        }
+
+        if (checkpointMillis > 0) {
+            synchronized (checkpointer) {
+                if (periodicCheckpoint == null) {
+                    periodicCheckpoint = checkpointer.scheduleWithFixedDelay(
+                            this::checkpoint, checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the background checkpoints and flush the changes made since the last one.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (checkpointer) {
+            if (periodicCheckpoint != null) {
+                periodicCheckpoint.cancel(false);
+                periodicCheckpoint = null;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Durably write the current contents to the file, without closing the dictionary.
+     * Every change that was made before the call is on disk when it returns.
+     * <p>
+     * Callers that arrive while another flush is writing wait for it to finish; then one of them writes
+     * a snapshot that covers all of their requests (group commit), and the others return without writing.
+     * Without group commit, each of them writes in turn.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        flush(flushRequests.incrementAndGet());
+    }
+
+    /**
+     * Request a flush on the background thread. The caller does not wait for the disk.
+     *
+     * @return a future that completes once every change made before the call is on disk, or completes
+     * exceptionally (with a {@link CompletionException} wrapping the {@link IOException}) if the flush failed.
+     */
+    public CompletableFuture<Void> flushAsync() {
+        long ticket = flushRequests.incrementAndGet();
+        return CompletableFuture.runAsync(() -> {
+            try {
+                flush(ticket);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, checkpointer);
+    }
+
+    private void flush(long ticket) throws IOException {
+        synchronized (flushLock) {
+            if (groupCommit && committed >= ticket) return; //a flush that started after our request already wrote it
+
+            long covered;
+            Set<String> flushed;
+            boolean wasCleared;
+            Snapshot snapshot;
+            snapshotLock.writeLock().lock();
+            try {
+                covered = flushRequests.get(); //every request up to here was made before the snapshot
+                flushed = dirty;
+                wasCleared = cleared;
+                dirty = ConcurrentHashMap.newKeySet();
+                cleared = false;
+                sinceCheckpoint.set(0);
+                snapshot = snapshot(); //writers only wait for this, not for the disk
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+
+            try (Snapshot written = snapshot) {
+                if (wasCleared || !dictFile.exists() || delta.getRecords() + flushed.size()
+                        > Math.max(InMemoryDictionary.MIN_MERGE_RECORDS, written.size() / 2)) {
+                    TextFormat.write(dictFile, written);
+                    delta.delete();
+                } else if (!flushed.isEmpty()) {
+                    Map<String, String> changes = new HashMap<>(flushed.size() * 2);
+                    for (String key : flushed) {
+                        changes.put(key, written.get(key)); //null if it was removed
+                    }
+                    delta.append(dictFile, false, changes);
+                }
+            } catch (IOException | RuntimeException e) {
+                dirty.addAll(flushed); //still not on disk, the next flush writes them
+                if (wasCleared) cleared = true;
+                throw e;
+            }
+            committed = covered;
+            commits++;
+        }
+    }
+
+    /**
+     * Take a consistent view of the dictionary as it is now. The view is not changed by later writes, and
+     * costs nothing until they are made: then the versions it sees are kept for it, until it is closed.
+     *
+     * @return the snapshot, which must be closed when it is no longer used.
+     */
+    public Snapshot snapshot() {
+        snapshotLock.writeLock().lock();
+        try {
+            long number = clock.get(); //every version up to this one is written
+            synchronized (snapshots) {
+                snapshots.merge(number, 1, Integer::sum);
+                oldestSnapshot = snapshots.firstKey();
+            }
+            return new Snapshot(entries, number, size.get());
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    private void release(long number) {
+        boolean sweep;
+        synchronized (snapshots) {
+            snapshots.computeIfPresent(number, (n, count) -> count == 1 ? null : count - 1);
+            oldestSnapshot = snapshots.isEmpty() ? Long.MAX_VALUE : snapshots.firstKey();
+            sweep = snapshots.isEmpty()
+                    && retained.get() > Math.max(InMemoryDictionary.MIN_MERGE_RECORDS, size.get() / 4);
+        }
+        if (sweep) { //many keys were not written again since, drop their old versions
+            retained.set(0);
+            for (String key : entries.keySet()) {
+                snapshotLock.readLock().lock();
+                try {
+                    entries.computeIfPresent(key, (k, head) -> prune(head));
+                } finally {
+                    snapshotLock.readLock().unlock();
+                }
+            }
+        }
+    }
+
+    private void checkpoint() {
+        if (dirty.isEmpty() && !cleared) return;
+        try {
+            flush();
+        } catch (IOException e) {
+            // the changes stay dirty, the next checkpoint or close retries
+        }
+    }
+
+    /**
+     * Note a change made under the snapshot read lock, and start a checkpoint if enough changes were made.
+     */
+    private void changed(String key) {
+        dirty.add(key);
+        if (checkpointChanges > 0 && sinceCheckpoint.incrementAndGet() == checkpointChanges) {
+            flushAsync();
+        }
+    }
+
+    /*======= Versions ======*/
+
+    /**
+     * A version of the definition of a key, linked to the previous version of the same key.
+     */
+    private static final class Version {
+        final long number;
+        final String value; // null if the key was removed
+        volatile Version older; // cut once no open snapshot can see the older versions
+
+        Version(long number, String value, Version older) {
+            this.number = number;
+            this.value = value;
+            this.older = older;
+        }
+    }
+
+    /**
+     * @return the definition a snapshot taken at the version number sees, or null if it sees none.
+     */
+    private static String valueAt(Version version, long number) {
+        while (version != null && version.number > number) {
+            version = version.older;
+        }
+        return version == null ? null : version.value;
+    }
+
+    /**
+     * Write a new version of a key. Called under the snapshot read lock, in a compute of the entries.
+     *
+     * @param value the new definition, or null to remove the key
+     * @return the new head of the versions of the key, or null if the key can be dropped from the map.
+     */
+    private Version write(Version head, String value) {
+        if (value == null && (head == null || head.value == null)) return head; //nothing to remove
+        return prune(new Version(clock.incrementAndGet(), value, head));
+    }
+
+    /**
+     * Drop the versions of a key that no open snapshot can see.
+     *
+     * @return the head, or null if the key was removed and no snapshot sees it.
+     */
+    private Version prune(Version head) {
+        Version oldest = head;
+        while (oldest != null && oldest.number > oldestSnapshot) {
+            oldest = oldest.older;
+        }
+        if (oldest != null) {
+            oldest.older = null; //the version the oldest snapshot sees, none before it is needed
+        }
+        if (head.older != null) retained.incrementAndGet();
+        return head.value == null && head.older == null ? null : head;
+    }
+
+    /**
+     * Iterate over the definitions a snapshot taken at the version number sees.
+     */
+    private static Iterator<Map.Entry<String, String>> scan(NavigableMap<String, Version> versions,
+                                                            String from, String to, long number) {
+        Iterator<Map.Entry<String, Version>> chains = KeyRange.view(versions, from, to).entrySet().iterator();
+        return KeyRange.skipping(new Iterator<Map.Entry<String, String>>() {
+            @Override
+            public boolean hasNext() {
+                return chains.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                Map.Entry<String, Version> chain = chains.next();
+                return new AbstractMap.SimpleImmutableEntry<>(chain.getKey(), valueAt(chain.getValue(), number));
+            }
+        }, null); //keys that were removed, or added after the snapshot
+    }
+
+    /*======= Reading and writing ======*/
+
+    @Override
+    public String get(Object key) {
+        Version head = entries.get(key);
+        return head == null ? null : head.value;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (value == null) {
+            throw new NullPointerException("Definition cannot be null.");
+        }
+        snapshotLock.readLock().lock();
+        try {
+            return store(key, value);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Puts the whole batch under a single acquisition of the writers' lock, so a snapshot (and so a flush)
+     * holds either all of the batch or none of it.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> batch) {
+        for (Map.Entry<? extends String, ? extends String> entry : batch.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) { //checked first, so a batch is never half done
+                throw new NullPointerException("Keys and definitions cannot be null.");
+            }
+        }
+        snapshotLock.readLock().lock();
+        try {
+            for (Map.Entry<? extends String, ? extends String> entry : batch.entrySet()) {
+                store(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the whole batch under a single acquisition of the writers' lock, like {@link #putAll}.
+     */
+    @Override
+    public int removeAll(Collection<? extends String> keys) {
+        for (String key : keys) {
+            Objects.requireNonNull(key, "Key cannot be null.");
+        }
+        snapshotLock.readLock().lock();
+        try {
+            int removed = 0;
+            for (String key : keys) {
+                if (delete(key) != null) removed++;
+            }
+            return removed;
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write a definition, under the snapshot read lock.
+     */
+    private String store(String key, String value) {
+        String[] previous = new String[1];
+        entries.compute(key, (k, head) -> {
+            previous[0] = head == null ? null : head.value;
+            return write(head, value);
+        });
+        if (previous[0] == null) size.incrementAndGet();
+        changed(key);
+        return previous[0];
+    }
+
+    /**
+     * Remove a key, under the snapshot read lock.
+     */
+    private String delete(String key) {
+        String[] previous = new String[1];
+        entries.computeIfPresent(key, (k, head) -> {
+            previous[0] = head.value;
+            return write(head, null);
+        });
+        if (previous[0] != null) {
+            size.decrementAndGet();
+            changed(key);
+        }
+        return previous[0];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public String remove(Object key) {
+        snapshotLock.readLock().lock();
+        try {
+            return delete((String) key);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        snapshotLock.writeLock().lock();
+        try {
+            entries = new ConcurrentSkipListMap<>(); //the open snapshots keep the old map
+            size.set(0);
+            dirty = ConcurrentHashMap.newKeySet();
+            cleared = true;
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Like the iterators of {@link ConcurrentSkipListMap}, the scan is weakly consistent: it may run
+     * concurrently with writers, and reflects some of the changes made after it started.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        return scan(entries, from, to, Long.MAX_VALUE);
+    }
+
+    /**
+     * A read-only view of the dictionary at the time {@link #snapshot()} was called. It may be read by any
+     * number of threads while the dictionary is written, and iterates in key order. It must not be used
+     * after it is closed.
+     */
+    public final class Snapshot extends AbstractMap<String, String> implements AutoCloseable {
+        private final ConcurrentSkipListMap<String, Version> versions;
+        private final long number;
+        private final int count;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Snapshot(ConcurrentSkipListMap<String, Version> versions, long number, int count) {
+            this.versions = versions;
+            this.number = number;
+            this.count = count;
+        }
+
+        @Override
+        public String get(Object key) {
+            return valueAt(versions.get(key), number);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return range(null, null);
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+
+        /**
+         * @see PersistentDictionary#range
+         */
+        public Iterator<Map.Entry<String, String>> range(String from, String to) {
+            return scan(versions, from, to, number);
+        }
+
+        /**
+         * Release the versions kept for the snapshot. Closing it again does nothing.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(number);
+            }
+        }
+    }
+}
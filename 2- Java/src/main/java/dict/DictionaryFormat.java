@@ -0,0 +1,168 @@
+package dict;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The on-disk formats a dictionary file can be stored in.
+ * <p>
+ * Readers don't need to be told the format of a file: {@link #of(File)} recognizes it from its first
+ * bytes, so a dictionary can be switched to a new format and still open the files written in the old one.
+ */
+public enum DictionaryFormat {
+    /**
+     * One <pre>word:def</pre> entry per line. Keys may not contain ':' and neither keys nor
+     * definitions may contain line breaks.
+     */
+    TEXT {
+        @Override
+        void read(File file, Map<String, String> map) throws IOException {
+            TextFormat.read(file, map);
+        }
+
+        @Override
+        void write(File file, Map<String, String> map) throws IOException {
+            TextFormat.write(file, map);
+        }
+
+        @Override
+        long generation(File file) throws IOException {
+            return TextFormat.generation(file);
+        }
+
+        @Override
+        boolean isSorted(File file) throws IOException {
+            return TextFormat.isSorted(file);
+        }
+    },
+
+    /**
+     * A versioned header with the entry count, followed by length-prefixed UTF-8 keys and definitions.
+     * Faster to load and write than {@link #TEXT}, and any string can be stored.
+     */
+    BINARY {
+        @Override
+        void read(File file, Map<String, String> map) throws IOException {
+            BinaryFormat.read(file, map);
+        }
+
+        @Override
+        void write(File file, Map<String, String> map) throws IOException {
+            BinaryFormat.write(file, map);
+        }
+
+        @Override
+        long generation(File file) throws IOException {
+            return BinaryFormat.generation(file);
+        }
+
+        @Override
+        boolean isSorted(File file) {
+            return false; //not recorded: the reader checks the order itself, once it has read every entry
+        }
+    },
+
+    /**
+     * Sorted entries in blocks compressed with {@link java.util.zip.Deflater}, followed by a block index.
+     * Takes much less disk space than the other formats when the definitions are repetitive text,
+     * and any string can be stored.
+     */
+    COMPRESSED {
+        @Override
+        void read(File file, Map<String, String> map) throws IOException {
+            CompressedFormat.read(file, map);
+        }
+
+        @Override
+        void write(File file, Map<String, String> map) throws IOException {
+            CompressedFormat.write(file, map);
+        }
+
+        @Override
+        long generation(File file) throws IOException {
+            return SegmentFile.generation(file);
+        }
+
+        @Override
+        boolean isSorted(File file) {
+            return true; //segments are always sorted
+        }
+    };
+
+    /**
+     * Put all the entries of the file into the map.
+     */
+    abstract void read(File file, Map<String, String> map) throws IOException;
+
+    /**
+     * Replace the contents of the file with the entries of the map, in the map's iteration order.
+     * The file is replaced atomically, so a crash leaves either the old or the new contents.
+     */
+    abstract void write(File file, Map<String, String> map) throws IOException;
+
+    /**
+     * Tell which write of a file this is: every write stores a new random generation in the file, so a file
+     * that was rewritten never has the generation of the one it replaced, even if it is otherwise identical.
+     *
+     * @param file an existing file in this format
+     * @return the generation of the file, or 0 if it has none (such as a text file that was written by hand)
+     */
+    abstract long generation(File file) throws IOException;
+
+    /**
+     * Tell whether a reader may rely on the entries of a file coming in ascending key order: once it has read
+     * past a key, the key is either loaded or not in the file.
+     *
+     * @param file an existing file in this format
+     * @return true if the file is known to be sorted
+     */
+    abstract boolean isSorted(File file) throws IOException;
+
+    /**
+     * @return a new generation for a file being written.
+     */
+    static long newGeneration() {
+        return ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    }
+
+    /**
+     * Recognize the format of an existing file by its first bytes.
+     * Files that don't start with the header of another format are text files.
+     *
+     * @param file an existing dictionary file
+     * @return the format the file is stored in
+     * @throws IOException
+     */
+    static DictionaryFormat of(File file) throws IOException {
+        byte[] head = new byte[Math.max(BinaryFormat.MAGIC.length, SegmentFile.HEADER.length)];
+        int read = readHead(file, head);
+        if (startsWith(head, read, BinaryFormat.MAGIC)) return BINARY;
+        if (startsWith(head, read, SegmentFile.HEADER)) return COMPRESSED;
+        return TEXT;
+    }
+
+    /**
+     * Read the first bytes of a file.
+     *
+     * @return the number of bytes read, less than the length of the array if the file is shorter.
+     */
+    static int readHead(File file, byte[] head) throws IOException {
+        int read = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while (read < head.length && (n = in.read(head, read, head.length - read)) > 0) {
+                read += n;
+            }
+        }
+        return read;
+    }
+
+    private static boolean startsWith(byte[] head, int length, byte[] magic) {
+        return length >= magic.length && Arrays.equals(Arrays.copyOf(head, magic.length), magic);
+    }
+}
@@ -0,0 +1,244 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A read-only replica of a dictionary, kept current by following the change feed of its
+ * {@link PublishingDictionary}, which may run in another process on the same machine.
+ * <p>
+ * {@link #open()} loads the feed's snapshot and the batches after it; from then on each {@link #poll()} applies
+ * only the batches published since the last one, and never reloads the dictionary unless the feed was replaced
+ * by one it cannot follow on from. Given a poll interval, a daemon thread polls while the dictionary is open;
+ * a background poll that fails is retried at the next interval. {@link #getLagMillis()} tells how far the
+ * replica is behind the feed.
+ * <p>
+ * It may be read by any number of threads while it is polled. Each batch is applied atomically: a lookup sees
+ * all of a batch or none of it. Range scans are weakly consistent, as those of {@link ConcurrentSkipListMap}.
+ * The methods that change the dictionary throw {@link UnsupportedOperationException}, and {@link #close()}
+ * writes nothing.
+ */
+public class FollowerDictionary implements PersistentDictionary {
+
+    private final ChangeFeed feed;
+    private final long pollMillis; // 0 for no background polls
+    private final ScheduledThreadPoolExecutor poller;
+    private ScheduledFuture<?> periodicPoll; // guarded by poller, null unless open
+
+    private final Object pollLock = new Object(); // one poll at a time
+    private ChangeFeed.Cursor cursor = new ChangeFeed.Cursor(); // guarded by pollLock
+    private volatile long appliedSequence = -1;
+
+    // Lookups hold the read lock, applying a batch holds the write lock.
+    private final ReadWriteLock batchLock = new ReentrantReadWriteLock();
+    private volatile ConcurrentSkipListMap<String, String> entries = new ConcurrentSkipListMap<>();
+    private volatile int size;
+
+    public FollowerDictionary(File feedFile) {
+        this(feedFile, 0);
+    }
+
+    /**
+     * Create a replica that polls the feed in the background while it is open.
+     *
+     * @param feedFile   the feed the {@link PublishingDictionary} writes
+     * @param pollMillis the time between polls in milliseconds, or 0 to only poll when {@link #poll()} is called
+     */
+    public FollowerDictionary(File feedFile, long pollMillis) {
+        if (feedFile == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        if (pollMillis < 0) {
+            throw new IllegalArgumentException("Poll interval cannot be negative.");
+        }
+        this.feed = new ChangeFeed(feedFile);
+        this.pollMillis = pollMillis;
+
+        poller = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "follow " + feedFile.getName());
+            thread.setDaemon(true); //never keeps the program alive
+            return thread;
+        });
+        poller.setKeepAliveTime(1, TimeUnit.SECONDS);
+        poller.allowCoreThreadTimeOut(true); //no thread while closed
+    }
+
+    @Override
+    public void open() throws IOException {
+        synchronized (pollLock) {
+            batchLock.writeLock().lock();
+            try {
+                entries = new ConcurrentSkipListMap<>();
+                size = 0;
+            } finally {
+                batchLock.writeLock().unlock();
+            }
+            cursor = new ChangeFeed.Cursor();
+            appliedSequence = -1;
+            poll(); //a missing feed is an empty dictionary until the publisher starts it
+        }
+
+        if (pollMillis > 0) {
+            synchronized (poller) {
+                if (periodicPoll == null) {
+                    periodicPoll = poller.scheduleWithFixedDelay(() -> {
+                        try {
+                            poll();
+                        } catch (IOException | RuntimeException e) {
+                            // retried at the next interval
+                        }
+                    }, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the background polls. Nothing to write, the replica cannot be changed.
+     */
+    @Override
+    public void close() {
+        synchronized (poller) {
+            if (periodicPoll != null) {
+                periodicPoll.cancel(false);
+                periodicPoll = null;
+            }
+        }
+    }
+
+    /*======= Following the feed ======*/
+
+    /**
+     * Apply the batches published since the last poll.
+     *
+     * @return the number of batches applied
+     */
+    public int poll() throws IOException {
+        synchronized (pollLock) {
+            int[] applied = {0};
+            feed.read(cursor, batch -> {
+                apply(batch);
+                appliedSequence = batch.sequence;
+                applied[0]++;
+                return true;
+            });
+            return applied[0];
+        }
+    }
+
+    private void apply(ChangeFeed.Batch batch) {
+        if (batch.cleared) { //a snapshot: build the new contents aside, and swap them in
+            ConcurrentSkipListMap<String, String> replaced = new ConcurrentSkipListMap<>();
+            for (Map.Entry<String, String> change : batch.changes.entrySet()) {
+                if (change.getValue() != null) replaced.put(change.getKey(), change.getValue());
+            }
+            batchLock.writeLock().lock();
+            try {
+                entries = replaced;
+                size = replaced.size();
+            } finally {
+                batchLock.writeLock().unlock();
+            }
+            return;
+        }
+
+        batchLock.writeLock().lock();
+        try {
+            int newSize = size;
+            for (Map.Entry<String, String> change : batch.changes.entrySet()) {
+                String previous = change.getValue() == null
+                        ? entries.remove(change.getKey()) : entries.put(change.getKey(), change.getValue());
+                if (previous == null && change.getValue() != null) newSize++;
+                if (previous != null && change.getValue() == null) newSize--;
+            }
+            size = newSize;
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number of the last batch applied, -1 if none. The replica is up to date when it
+     * equals {@link PublishingDictionary#getPublishedSequence()}.
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * @return the replication lag: how long ago the oldest batch that was published but not applied yet was
+     * published, in milliseconds, or 0 if the replica is up to date with the feed.
+     */
+    public long getLagMillis() throws IOException {
+        ChangeFeed.Cursor ahead;
+        synchronized (pollLock) {
+            ahead = cursor.copy();
+        }
+        long[] published = {-1};
+        feed.read(ahead, batch -> {
+            published[0] = batch.publishedMillis;
+            return false; //only the oldest one
+        });
+        return published[0] < 0 ? 0 : Math.max(0, System.currentTimeMillis() - published[0]);
+    }
+
+    /*======= Reading ======*/
+
+    @Override
+    public String get(Object key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+        batchLock.readLock().lock();
+        try {
+            return entries.get(key);
+        } finally {
+            batchLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+        batchLock.readLock().lock();
+        try {
+            return entries.containsKey(key);
+        } finally {
+            batchLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        return KeyRange.range(entries, from, to);
+    }
+
+    /*======= Writing is not supported ======*/
+
+    @Override
+    public String put(String key, String value) {
+        throw new UnsupportedOperationException("A follower cannot be changed, change its publisher.");
+    }
+
+    @Override
+    public String remove(Object key) {
+        throw new UnsupportedOperationException("A follower cannot be changed, change its publisher.");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A follower cannot be changed, change its publisher.");
+    }
+}
@@ -0,0 +1,278 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An immutable dictionary for read-mostly use, that takes a fraction of the memory of a {@link TreeMap}.
+ * <p>
+ * All the keys are stored one after the other as UTF-8 in a single byte array, and so are all the
+ * definitions; two offset tables tell where each one starts. The keys are sorted, so a lookup is a binary
+ * search that compares the wanted key with the stored bytes directly, without creating strings. Only the
+ * definition that is found is decoded. There are no per-entry objects at all, so the dictionary costs
+ * about 8 bytes per entry besides the text itself, and searching it touches a few contiguous arrays.
+ * <p>
+ * A frozen dictionary is made from a map with {@link #of} (or {@link InMemoryDictionary#freeze()}),
+ * or loaded from a dictionary file (in any {@link DictionaryFormat}) by {@link #open()}. {@link #thaw()}
+ * turns it back into a mutable map. The methods that change the dictionary throw
+ * {@link UnsupportedOperationException}, and {@link #close()} writes nothing.
+ * The keys and the definitions may each take up to 2GB of UTF-8.
+ */
+public final class FrozenDictionary implements PersistentDictionary {
+    private final File dictFile;
+
+    private int size;
+    private byte[] keys = new byte[0];
+    private int[] keyOffsets = {0}; // size + 1 offsets, key i is keys[keyOffsets[i] .. keyOffsets[i + 1])
+    private byte[] values = new byte[0];
+    private int[] valueOffsets = {0};
+
+    /**
+     * Create a frozen dictionary that is loaded from the file by {@link #open()}.
+     */
+    public FrozenDictionary(File dictFile) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        this.dictFile = dictFile;
+    }
+
+    /**
+     * Freeze the contents of a map.
+     *
+     * @param dictFile the file {@link #open()} reloads the dictionary from
+     * @param map      the entries of the dictionary; the map is not changed
+     */
+    public static FrozenDictionary of(File dictFile, Map<String, String> map) {
+        FrozenDictionary frozen = new FrozenDictionary(dictFile);
+        frozen.pack(map);
+        return frozen;
+    }
+
+    @Override
+    public void open() throws IOException {
+        TreeMap<String, String> loaded = new TreeMap<>();
+        if (dictFile.exists()) {
+            DictionaryFormat.of(dictFile).read(dictFile, loaded);
+            ChangeLog delta = new ChangeLog(new File(dictFile.getPath() + ".delta")); //as InMemoryDictionary wrote it
+            delta.replay(dictFile, loaded, false); //a stale delta is the writer's to delete
+        }
+        pack(loaded);
+    }
+
+    /**
+     * Nothing to write, the dictionary cannot be changed.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return a new mutable map holding the entries of the dictionary.
+     */
+    public TreeMap<String, String> thaw() {
+        String[] allKeys = new String[size];
+        String[] allValues = new String[size];
+        for (int i = 0; i < size; ++i) {
+            allKeys[i] = key(i);
+            allValues[i] = value(i);
+        }
+        return new TreeMap<>(new SortedArrayMap(allKeys, allValues, size)); //linear-time build from the sorted arrays
+    }
+
+    /**
+     * @return the number of bytes taken by the arrays holding the dictionary.
+     */
+    public long getPackedBytes() {
+        return keys.length + values.length + 4L * (keyOffsets.length + valueOffsets.length);
+    }
+
+    private void pack(Map<String, String> map) {
+        SortedMap<String, String> sorted = map instanceof SortedMap && ((SortedMap<String, String>) map).comparator() == null
+                ? (SortedMap<String, String>) map : new TreeMap<>(map);
+        int count = sorted.size();
+        ByteArrayBuilder packedKeys = new ByteArrayBuilder();
+        ByteArrayBuilder packedValues = new ByteArrayBuilder();
+        int[] newKeyOffsets = new int[count + 1];
+        int[] newValueOffsets = new int[count + 1];
+
+        int i = 0;
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            packedKeys.append(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            packedValues.append(entry.getValue().getBytes(StandardCharsets.UTF_8));
+            newKeyOffsets[++i] = packedKeys.length();
+            newValueOffsets[i] = packedValues.length();
+        }
+
+        size = count;
+        keys = packedKeys.toArray();
+        keyOffsets = newKeyOffsets;
+        values = packedValues.toArray();
+        valueOffsets = newValueOffsets;
+    }
+
+    /*======= Reading ======*/
+
+    private String key(int index) {
+        return new String(keys, keyOffsets[index], keyOffsets[index + 1] - keyOffsets[index], StandardCharsets.UTF_8);
+    }
+
+    private String value(int index) {
+        return new String(values, valueOffsets[index], valueOffsets[index + 1] - valueOffsets[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare a key with the stored key at the index, in the order of {@link String#compareTo}
+     * (UTF-16 code units), decoding the stored UTF-8 as it goes.
+     */
+    private int compare(String key, int index) {
+        int position = keyOffsets[index];
+        int end = keyOffsets[index + 1];
+        int i = 0;
+        while (i < key.length() && position < end) {
+            int b = keys[position] & 0xFF;
+            int codePoint;
+            if (b < 0x80) {
+                codePoint = b;
+                position += 1;
+            } else if (b < 0xE0) {
+                codePoint = (b & 0x1F) << 6 | keys[position + 1] & 0x3F;
+                position += 2;
+            } else if (b < 0xF0) {
+                codePoint = (b & 0x0F) << 12 | (keys[position + 1] & 0x3F) << 6 | keys[position + 2] & 0x3F;
+                position += 3;
+            } else {
+                codePoint = (b & 0x07) << 18 | (keys[position + 1] & 0x3F) << 12
+                        | (keys[position + 2] & 0x3F) << 6 | keys[position + 3] & 0x3F;
+                position += 4;
+            }
+
+            if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                int order = key.charAt(i++) - codePoint;
+                if (order != 0) return order;
+            } else { //two UTF-16 units
+                int order = key.charAt(i++) - Character.highSurrogate(codePoint);
+                if (order != 0) return order;
+                if (i == key.length()) return -1;
+                order = key.charAt(i++) - Character.lowSurrogate(codePoint);
+                if (order != 0) return order;
+            }
+        }
+        if (i < key.length()) return 1;
+        return position < end ? -1 : 0;
+    }
+
+    /**
+     * @return the index of the first stored key that is not less than the key (size if there is none).
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(key, middle) > 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int indexOf(Object key) {
+        String word = (String) Objects.requireNonNull(key, "Key cannot be null.");
+        int index = lowerBound(word);
+        return index < size && compare(word, index) == 0 ? index : -1;
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : value(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            throw new IllegalArgumentException("Range start is after its end.");
+        }
+        int first = from == null ? 0 : lowerBound(from);
+        int last = to == null ? size : lowerBound(to);
+
+        return new Iterator<Map.Entry<String, String>>() {
+            private int next = first;
+
+            @Override
+            public boolean hasNext() {
+                return next < last;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int index = next++;
+                return new AbstractMap.SimpleImmutableEntry<>(key(index), value(index));
+            }
+        };
+    }
+
+    /*======= Writing is not supported ======*/
+
+    @Override
+    public String put(String key, String value) {
+        throw new UnsupportedOperationException("A frozen dictionary cannot be changed.");
+    }
+
+    @Override
+    public String remove(Object key) {
+        throw new UnsupportedOperationException("A frozen dictionary cannot be changed.");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A frozen dictionary cannot be changed.");
+    }
+
+    /**
+     * A growable byte array, like {@link java.io.ByteArrayOutputStream} without the synchronization and copies.
+     */
+    private static final class ByteArrayBuilder {
+        private byte[] bytes = new byte[1024];
+        private int length;
+
+        void append(byte[] b) {
+            if (bytes.length - length < b.length) {
+                long capacity = Math.max((long) bytes.length * 2, (long) length + b.length);
+                if (capacity > Integer.MAX_VALUE - 8) {
+                    if ((long) length + b.length > Integer.MAX_VALUE - 8) {
+                        throw new IllegalStateException("Dictionary is too large to freeze");
+                    }
+                    capacity = Integer.MAX_VALUE - 8;
+                }
+                bytes = Arrays.copyOf(bytes, (int) capacity);
+            }
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        int length() {
+            return length;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+}
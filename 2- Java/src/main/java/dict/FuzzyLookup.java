@@ -0,0 +1,109 @@
+package dict;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Finds the keys within a Levenshtein distance of a word, for {@link PersistentDictionary#fuzzyGet}.
+ * <p>
+ * The search runs the Levenshtein automaton of the word over the sorted keys of the dictionary: it keeps
+ * one row of the edit distance table per character of the current key, so keys that share a prefix with
+ * the previous key only extend its rows. Once every entry of a row is over the maximal distance, no key
+ * starting with that prefix can match, and the search seeks past all of them with a new
+ * {@link PersistentDictionary#range} scan. So it only visits the keys along the few prefixes that are
+ * still within reach, instead of every key.
+ * <p>
+ * Distances count UTF-16 characters, in the order keys are sorted by.
+ */
+final class FuzzyLookup {
+    private final String word;
+    private final int maxDistance;
+    private int[][] rows; // rows[d] is the table row of the first d characters of the current key
+    private String current = ""; // the key whose rows are computed, up to its length or a dead prefix
+    private int computed; // the number of valid rows after the first
+
+    private FuzzyLookup(String word, int maxDistance) {
+        this.word = word;
+        this.maxDistance = maxDistance;
+        rows = new int[16][];
+        rows[0] = new int[word.length() + 1];
+        for (int j = 0; j <= word.length(); ++j) {
+            rows[0][j] = j; //an empty prefix is j insertions away
+        }
+    }
+
+    /**
+     * @return the mappings of the dictionary whose keys are at most maxDistance edits away from the word.
+     */
+    static SortedMap<String, String> search(PersistentDictionary dict, String word, int maxDistance) {
+        if (word == null) {
+            throw new NullPointerException("Key cannot be null.");
+        }
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Distance cannot be negative.");
+        }
+        FuzzyLookup lookup = new FuzzyLookup(word, maxDistance);
+        SortedMap<String, String> found = new TreeMap<>();
+
+        Iterator<Map.Entry<String, String>> keys = dict.range(null, null);
+        while (keys.hasNext()) {
+            Map.Entry<String, String> entry = keys.next();
+            String key = entry.getKey();
+            int dead = lookup.advance(key);
+            if (dead < 0) {
+                if (lookup.distance(key.length()) <= maxDistance) {
+                    found.put(key, entry.getValue());
+                }
+            } else { //no key starting with the first dead characters can match, skip them all
+                String next = KeyRange.prefixEnd(key.substring(0, dead));
+                if (next == null) break;
+                keys = dict.range(next, null);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Compute the rows of a key, reusing those of the prefix it shares with the previous key.
+     *
+     * @return the length of the shortest prefix of the key that cannot lead to a match, or -1 if there is none.
+     */
+    private int advance(String key) {
+        int common = 0;
+        int limit = Math.min(computed, key.length());
+        while (common < limit && current.charAt(common) == key.charAt(common)) {
+            common++;
+        }
+        current = key;
+        computed = common;
+
+        for (int d = common + 1; d <= key.length(); ++d) {
+            if (d == rows.length) {
+                rows = Arrays.copyOf(rows, rows.length * 2);
+            }
+            int[] previous = rows[d - 1];
+            int[] row = rows[d];
+            if (row == null) {
+                row = rows[d] = new int[word.length() + 1];
+            }
+            char c = key.charAt(d - 1);
+            row[0] = d;
+            int min = d;
+            for (int j = 1; j <= word.length(); ++j) {
+                int cost = word.charAt(j - 1) == c ? 0 : 1;
+                row[j] = Math.min(Math.min(previous[j] + 1, row[j - 1] + 1), previous[j - 1] + cost);
+                min = Math.min(min, row[j]);
+            }
+            computed = d;
+            if (min > maxDistance) return d;
+        }
+        return -1;
+    }
+
+    private int distance(int length) {
+        return rows[length][word.length()];
+    }
+}
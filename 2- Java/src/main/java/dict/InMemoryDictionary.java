@@ -1,59 +1,555 @@
 package dict;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
  * Implements a persistent dictionary that can be held entirely in memory.
- * When flushed, it writes the entire dictionary back to a file.
+ * When flushed, it writes the keys that changed since it was opened to a delta file next to the
+ * dictionary file (the dictionary file name with a ".delta" suffix), so a flush costs I/O in proportion
+ * to the changes; once the delta grows large compared to the dictionary, it is merged by writing the
+ * entire dictionary back to the file. A flush with no changes does no I/O at all.
  * <p>
- * The file format has one keyword per line:
+ * By default the file format has one keyword per line:
  * <pre>word:def</pre>
  * <p>
  * Note that an empty definition list is allowed (in which case the entry would have the form: <pre>word:</pre>
+ * <p>
+ * The dictionary can also be written in {@link DictionaryFormat#BINARY} or {@link DictionaryFormat#COMPRESSED}.
+ * Opening always recognizes the format the file is actually in, and a file in another format is converted
+ * on the next close.
+ * <p>
+ * Definitions can optionally be deduplicated: equal definitions (such as empty ones) then share a single
+ * instance, through a bounded intern table. This is done once the file is loaded, and on every put.
+ * <p>
+ * Changes are tracked through {@link #put}, {@link #putAll}, {@link #remove}, {@link #clear} and the
+ * poll methods. Changes made through the map's views (e.g. {@link #entrySet()}) are not tracked.
+ * <p>
+ * The dictionary can be opened lazily: {@link #open()} then returns at once, and the file is loaded by a
+ * background thread. If the file is known to be in key order (as the text files this package writes from a
+ * sorted map, and compressed files, are), a {@link #get}, {@link #put}, {@link #containsKey} or {@link #remove}
+ * only waits until the loader has passed the position of its key; the other methods wait for the whole file
+ * (and {@link #awaitLoad()} does so explicitly). The map's views, inherited from {@link TreeMap}, may only be
+ * used once the file is loaded. The delta is read before open returns, so its keys never wait. Any other file,
+ * or one that turns out not to be sorted after all, makes every method wait for the whole file.
  *
  * @author talm
  */
 public class InMemoryDictionary extends TreeMap<String, String> implements PersistentDictionary {
     private static final long serialVersionUID = 1L; // (because we're extending a serializable class)
 
+    /**
+     * Deltas shorter than this are never merged, no matter how small the dictionary is.
+     */
+    static final int MIN_MERGE_RECORDS = 1024;
+
     private final File dictFile;
+    private final DictionaryFormat format;
+    private final transient ChangeLog delta;
+
+    // Keys changed since the last open/close, mapped to their new definition (null if removed).
+    private final transient Map<String, String> changes = new LinkedHashMap<>();
+    // Whether the next close rewrites the whole file anyway, so changes need not be tracked: the dictionary
+    // was cleared, or a batch changed most of it, since the last open/close. Until the first open this is true,
+    // so that closing a dictionary that was never opened replaces whatever was on disk.
+    private transient boolean rewrite = true;
+    private transient boolean loading; // true while open() fills the map, which is not a change
+    private transient boolean converting; // true if the file was opened in a different format
+    private final transient ValueInterner interner; // null unless definitions are deduplicated
+
+    /**
+     * Entries are published by a lazy open in batches of this many.
+     */
+    static final int LOAD_BATCH = 4096;
+
+    private final boolean lazyOpen;
+    private final transient Object loadLock = new Object();
+    private transient Thread loader; // the thread of the last lazy open
+    // True while a lazy open is loading the file (or failed to): then the map is only used under loadLock.
+    private transient volatile boolean streaming;
+    // Guarded by loadLock. The last key the loader published, null if none yet.
+    private transient String loadedUpTo;
+    private transient boolean unsorted; // guarded by loadLock. The file is not in key order
+    private transient IOException loadFailure; // guarded by loadLock
+    // The keys of the delta, mapped to their definition or to null if they were removed. Read-only while loading.
+    private transient Map<String, String> overlay = new HashMap<>();
 
     public InMemoryDictionary(File dictFile) { //constructor
+        this(dictFile, DictionaryFormat.TEXT);
+    }
+
+    /**
+     * @param dictFile the file the dictionary is stored in
+     * @param format   the format the dictionary file is written in
+     */
+    public InMemoryDictionary(File dictFile, DictionaryFormat format) {
+        this(dictFile, format, 0);
+    }
+
+    /**
+     * @param dictFile       the file the dictionary is stored in
+     * @param format         the format the dictionary file is written in
+     * @param internCapacity the number of distinct definitions kept for deduplication, or 0 not to deduplicate
+     */
+    public InMemoryDictionary(File dictFile, DictionaryFormat format, int internCapacity) {
+        this(dictFile, format, internCapacity, false);
+    }
+
+    /**
+     * @param dictFile       the file the dictionary is stored in
+     * @param format         the format the dictionary file is written in
+     * @param internCapacity the number of distinct definitions kept for deduplication, or 0 not to deduplicate
+     * @param lazyOpen       whether {@link #open()} returns at once and loads the file in the background
+     */
+    public InMemoryDictionary(File dictFile, DictionaryFormat format, int internCapacity, boolean lazyOpen) {
         if (dictFile == null) {
             throw new IllegalArgumentException("File cannot be null.");
         }
+        if (format == null) {
+            throw new IllegalArgumentException("Format cannot be null.");
+        }
+        if (internCapacity < 0) {
+            throw new IllegalArgumentException("Intern table capacity cannot be negative.");
+        }
         this.dictFile = dictFile;
+        this.format = format;
+        this.delta = new ChangeLog(new File(dictFile.getPath() + ".delta"));
+        this.interner = internCapacity > 0 ? new ValueInterner(internCapacity) : null;
+        this.lazyOpen = lazyOpen;
+    }
+
+    /**
+     * @return the estimated number of heap bytes saved by deduplicating definitions since the last open,
+     * or 0 if definitions are not deduplicated.
+     */
+    public long getBytesSaved() {
+        return interner == null ? 0 : interner.getBytesSaved();
+    }
+
+    /**
+     * @return the file holding the changes that were not merged into the dictionary file yet.
+     */
+    public File getDeltaFile() {
+        return delta.getFile();
     }
 
     @Override
     public void open() throws IOException {
-        this.clear();   //removes all key value pairs in the current instance of the dictionary
-        if (dictFile.exists() == false) return;
-
-        try (BufferedReader read = new BufferedReader(new FileReader(dictFile))) { //opens file for reading and closes when it ends.
-            String line;
-            while ((line = read.readLine()) != null) {
-                int index = line.indexOf(':');
-
-                if (index >= 0) {
-                    String key = line.substring(0, index); //takes string from to index -1
-                    String value = line.substring(index + 1); //takes string right after the ':'
-                    put(key, value); //put came from TreeMap.
+        stopLoader();
+        if (lazyOpen) {
+            openLazily();
+            return;
+        }
+        loading = true;
+        try {
+            this.clear();   //removes all key value pairs in the current instance of the dictionary
+            converting = false;
+            if (dictFile.exists()) {
+                DictionaryFormat stored = DictionaryFormat.of(dictFile);
+                stored.read(dictFile, this);
+                converting = stored != format;
+            }
+            delta.replay(dictFile, this); //discards the delta if it doesn't belong to this file
+            if (interner != null) {
+                interner.reset();
+                for (Map.Entry<String, String> entry : entrySet()) {
+                    entry.setValue(interner.intern(entry.getValue()));
                 }
             }
+        } finally {
+            loading = false;
         }
+        changes.clear();
+        rewrite = false;
     }
 
     @Override
     public void close() throws IOException {
-        try (BufferedWriter write = new BufferedWriter(new FileWriter(dictFile))) {  //opens file for writing and closes when it ends.
+        awaitLoad(); //a partly loaded dictionary must not replace the file
+        if (!dictFile.exists() || rewrite || converting
+                || delta.getRecords() + changes.size() > Math.max(MIN_MERGE_RECORDS, size() / 2)) {
+            format.write(dictFile, this); //merge everything into the dictionary file
+            delta.delete();
+            converting = false;
+        } else if (!changes.isEmpty()) {
+            delta.append(dictFile, false, changes);
+        }
+        changes.clear();
+        rewrite = false;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!streaming) return super.get(key);
+        synchronized (loadLock) {
+            awaitKey(key);
+            return super.get(key);
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!streaming) return super.containsKey(key);
+        synchronized (loadLock) {
+            awaitKey(key);
+            return super.containsKey(key);
+        }
+    }
+
+    @Override
+    public int size() {
+        awaitLoadUnchecked();
+        return super.size();
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (!streaming) return store(key, value);
+        synchronized (loadLock) {
+            awaitKey(key);
+            return store(key, value);
+        }
+    }
+
+    private String store(String key, String value) {
+        if (interner != null && value != null && !loading) {
+            value = interner.intern(value);
+        }
+        String previous = super.put(key, value);
+        if (!loading && !rewrite && !Objects.equals(previous, value)) {
+            changes.put(key, value);
+        }
+        return previous;
+    }
+
+    /**
+     * Put a batch of definitions. A batch that changes most of the dictionary is not tracked key by key,
+     * since closing will write the whole file anyway. A batch in ascending key order that is put into an
+     * empty dictionary builds the tree in linear time, even if it is not a {@link java.util.SortedMap}.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> map) {
+        awaitLoadUnchecked();
+        if (!loading && !rewrite
+                && changes.size() + map.size() > Math.max(MIN_MERGE_RECORDS, (size() + map.size()) / 2)) {
+            rewrite = true; //close will merge: stop tracking
+            changes.clear();
+        }
+        if (interner != null && !loading) { //intern every definition
+            for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+
+        Map<? extends String, ? extends String> batch = map;
+        if (isEmpty() && !(map instanceof SortedMap)) {
+            batch = presorted(map);
+        }
+        // TreeMap builds an empty map from a SortedMap in its order in linear time, without calling put;
+        // any other batch is put key by key, and put tracks the changes.
+        boolean built = isEmpty() && !batch.isEmpty() && batch instanceof SortedMap
+                && Objects.equals(comparator(), ((SortedMap<? extends String, ? extends String>) batch).comparator());
+        super.putAll(batch);
+        if (built && !loading && !rewrite) {
+            for (Map.Entry<? extends String, ? extends String> entry : batch.entrySet()) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the entries as a sorted map over arrays if they are in strictly ascending key order,
+     * otherwise the map itself.
+     */
+    private static Map<? extends String, ? extends String> presorted(Map<? extends String, ? extends String> map) {
+        String[] keys = new String[map.size()];
+        String[] values = new String[map.size()];
+        int count = 0;
+        for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+            if (count == keys.length || entry.getValue() == null
+                    || count > 0 && keys[count - 1].compareTo(entry.getKey()) >= 0) {
+                return map; //not sorted (or changing under us): insert one by one
+            }
+            keys[count] = entry.getKey();
+            values[count++] = entry.getValue();
+        }
+        return new SortedArrayMap(keys, values, count);
+    }
+
+    @Override
+    public String remove(Object key) {
+        if (!streaming) return delete(key);
+        synchronized (loadLock) {
+            awaitKey(key);
+            return delete(key);
+        }
+    }
+
+    private String delete(Object key) {
+        boolean present = super.containsKey(key);
+        String previous = super.remove(key);
+        if (!loading && !rewrite && present) {
+            changes.put((String) key, null);
+        }
+        return previous;
+    }
+
+    @Override
+    public Map.Entry<String, String> pollFirstEntry() {
+        awaitLoadUnchecked();
+        Map.Entry<String, String> entry = super.pollFirstEntry();
+        if (!loading && !rewrite && entry != null) {
+            changes.put(entry.getKey(), null);
+        }
+        return entry;
+    }
+
+    @Override
+    public Map.Entry<String, String> pollLastEntry() {
+        awaitLoadUnchecked();
+        Map.Entry<String, String> entry = super.pollLastEntry();
+        if (!loading && !rewrite && entry != null) {
+            changes.put(entry.getKey(), null);
+        }
+        return entry;
+    }
+
+    @Override
+    public void clear() {
+        if (!loading) awaitLoadUnchecked();
+        super.clear();
+        if (!loading) {
+            changes.clear();
+            rewrite = true;
+        }
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        awaitLoadUnchecked(); //the loader would invalidate the iterator
+        return KeyRange.range(this, from, to);
+    }
+
+    /**
+     * @return an immutable, compact copy of the current contents, backed by the same file.
+     * @see FrozenDictionary
+     */
+    public FrozenDictionary freeze() {
+        awaitLoadUnchecked();
+        return FrozenDictionary.of(dictFile, this);
+    }
+
+    /*======= Lazy open ======*/
 
-            for (String key : this.keySet()) { //goes through all the keys.
-                write.write(key + ":" + this.get(key)); //writes the key:value
-                write.newLine();
+    /**
+     * Wait until the file opened by a lazy open is loaded. Returns at once if it is, or if the dictionary
+     * is not opened lazily.
+     *
+     * @throws IOException if loading the file failed
+     */
+    public void awaitLoad() throws IOException {
+        if (!streaming) return;
+        synchronized (loadLock) {
+            boolean interrupted = false;
+            while (streaming && loadFailure == null) {
+                try {
+                    loadLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (loadFailure != null) {
+                throw new IOException("Loading " + dictFile + " failed", loadFailure);
+            }
+        }
+    }
+
+    private void awaitLoadUnchecked() {
+        try {
+            awaitLoad();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Wait until the loader has loaded the key, if it is in the file. Called holding loadLock.
+     */
+    private void awaitKey(Object key) {
+        String word = (String) Objects.requireNonNull(key, "Key cannot be null.");
+        if (overlay.containsKey(word)) return; //the delta decides, whatever the file holds
+
+        boolean interrupted = false;
+        while (streaming && loadFailure == null && (unsorted || loadedUpTo == null || loadedUpTo.compareTo(word) < 0)) {
+            try {
+                loadLock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
             }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (loadFailure != null) {
+            throw new UncheckedIOException("Loading " + dictFile + " failed", loadFailure);
+        }
+    }
 
+    /**
+     * Wait for the loader of the previous lazy open, if it is still running, and forget how it ended.
+     */
+    private void stopLoader() {
+        if (loader == null) return;
+        boolean interrupted = false;
+        while (loader.isAlive()) {
+            try {
+                loader.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        loader = null;
+        streaming = false;
+        loadFailure = null;
+    }
+
+    private void openLazily() throws IOException {
+        loading = true;
+        try {
+            this.clear();
+        } finally {
+            loading = false;
+        }
+        changes.clear();
+        rewrite = false;
+        if (interner != null) interner.reset();
+
+        DictionaryFormat stored = dictFile.exists() ? DictionaryFormat.of(dictFile) : null;
+        converting = stored != null && stored != format;
+        DeltaOverlay changed = new DeltaOverlay();
+        delta.replay(dictFile, changed); //discards the delta if it doesn't belong to this file
+        for (Map.Entry<String, String> entry : changed.entrySet()) {
+            if (entry.getValue() != null) {
+                super.put(entry.getKey(), intern(entry.getValue()));
+            }
+        }
+        overlay = changed;
+        if (stored == null || changed.cleared) return; //nothing to load
+
+        loadedUpTo = null;
+        unsorted = !stored.isSorted(dictFile);
+        streaming = true;
+        loader = new Thread(() -> {
+            try {
+                stored.read(dictFile, new Loader());
+                synchronized (loadLock) {
+                    overlay = new HashMap<>();
+                    streaming = false;
+                    loadLock.notifyAll();
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (loadLock) {
+                    loadFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+                    loadLock.notifyAll();
+                }
+            }
+        }, "load " + dictFile.getName());
+        loader.setDaemon(true); //never keeps the program alive
+        loader.start();
+    }
+
+    private String intern(String value) {
+        return interner == null ? value : interner.intern(value);
+    }
+
+    /**
+     * The changes of the delta, as replayed into a map: removed keys are kept, mapped to null.
+     */
+    private static final class DeltaOverlay extends HashMap<String, String> {
+        private static final long serialVersionUID = 1L;
+        boolean cleared; // the delta starts by clearing the file
+
+        @Override
+        public String remove(Object key) {
+            return super.put((String) key, null);
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            cleared = true;
+        }
+    }
+
+    /**
+     * Receives the entries of the file from the format reader, and publishes them in batches.
+     */
+    private final class Loader extends AbstractMap<String, String> {
+        private final String[] keys = new String[LOAD_BATCH];
+        private final String[] values = new String[LOAD_BATCH];
+        private int count;
+        private String last; // the last key received
+        private String pending; // the last key published, not yet known to be loadedUpTo
+
+        @Override
+        public String put(String key, String value) {
+            if (last != null && last.compareTo(key) >= 0) {
+                synchronized (loadLock) {
+                    unsorted = true; //waiting for a key's position no longer works
+                }
+            } else if (pending != null) {
+                synchronized (loadLock) {
+                    loadedUpTo = pending; //the file goes on past it, so no smaller key can follow
+                    loadLock.notifyAll();
+                }
+                pending = null;
+            }
+            last = key;
+            keys[count] = key;
+            values[count++] = value;
+            if (count == LOAD_BATCH) publish();
+            return null;
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends String> map) {
+            for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            publish(); //the end of a chunk of the file
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return Collections.emptySet();
+        }
+
+        private void publish() {
+            synchronized (loadLock) {
+                for (int i = 0; i < count; ++i) {
+                    if (!overlay.containsKey(keys[i])) {
+                        InMemoryDictionary.super.put(keys[i], intern(values[i]));
+                    }
+                }
+                loadLock.notifyAll();
+            }
+            if (count > 0) pending = keys[count - 1]; //only trusted once the next key was checked
+            Arrays.fill(keys, 0, count, null);
+            Arrays.fill(values, 0, count, null);
+            count = 0;
         }
     }
 }
@@ -0,0 +1,378 @@
+package dict;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Adds an inverted index over the definitions to another persistent dictionary, to find the words whose
+ * definition contains some terms without scanning every definition.
+ * <p>
+ * Definitions are split into tokens: runs of letters and digits, in lower case. Every key is given an id,
+ * and each token is mapped to the {@link PostingList} of the ids of the keys whose definition holds it.
+ * Ids are handed out in increasing order, so indexing a definition only appends to the lists of its
+ * tokens. A key that is changed or removed keeps nothing of its old id: the id is retired, and skipped by
+ * queries, until retired ids make up half of all ids and the lists are rebuilt without them.
+ * <p>
+ * The index is kept in its own file (the index file), written by {@link #close()} after the wrapped
+ * dictionary. The index file is deleted on the first change after an open, so if the dictionary is not
+ * closed properly, the next {@link #open()} rebuilds the index from the dictionary.
+ * Like the dictionaries it wraps, it is not thread-safe.
+ */
+public class IndexedDictionary implements PersistentDictionary {
+    static final int MAGIC = 0x49445831; // "IDX1"
+
+    /**
+     * Retired ids are only dropped from the lists once there are at least this many.
+     */
+    static final int MIN_RETIRED_IDS = 1024;
+
+    private final PersistentDictionary dict;
+    private final File indexFile;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] keys = new String[16]; // by id, null if the id was retired
+    private int nextId;
+    private int retired;
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private boolean indexSaved; // whether the index file matches the index
+
+    /**
+     * @param dict      the dictionary to index
+     * @param indexFile the file the index is kept in (such as the dictionary file with an ".idx" suffix)
+     */
+    public IndexedDictionary(PersistentDictionary dict, File indexFile) {
+        if (dict == null) {
+            throw new IllegalArgumentException("Dictionary cannot be null.");
+        }
+        if (indexFile == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        this.dict = dict;
+        this.indexFile = indexFile;
+    }
+
+    @Override
+    public void open() throws IOException {
+        dict.open();
+        clearIndex();
+        indexSaved = indexFile.exists() && readIndex();
+        if (!indexSaved) {
+            clearIndex(); //the index file is missing, stale or damaged: index the dictionary again
+            for (Iterator<Map.Entry<String, String>> entries = dict.range(null, null); entries.hasNext(); ) {
+                Map.Entry<String, String> entry = entries.next();
+                index(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        dict.close();
+        if (!indexSaved) {
+            writeIndex();
+            indexSaved = true;
+        }
+    }
+
+    /*======= Queries ======*/
+
+    /**
+     * Split a text into the tokens the index is made of.
+     *
+     * @return the distinct tokens, in order of first appearance
+     */
+    static Set<String> tokens(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); ) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (start < 0) start = i;
+            } else if (start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+            i += i < text.length() ? Character.charCount(codePoint) : 1;
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the words whose definition contains all the terms, in order.
+     * A term made of several tokens (such as "ice-cream") requires each of them.
+     */
+    public SortedSet<String> searchAll(String... terms) {
+        List<int[]> lists = new ArrayList<>();
+        for (String token : queryTokens(terms)) {
+            PostingList list = postings.get(token);
+            if (list == null) return new TreeSet<>(); //a term no definition has
+            lists.add(list.toArray());
+        }
+        if (lists.isEmpty()) return new TreeSet<>();
+
+        lists.sort(Comparator.comparingInt(list -> list.length)); //the shortest list bounds the result
+        int[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; ++i) {
+            result = intersect(result, lists.get(i));
+        }
+        return keysOf(result);
+    }
+
+    /**
+     * @return the words whose definition contains any of the terms, in order.
+     */
+    public SortedSet<String> searchAny(String... terms) {
+        int[] result = new int[0];
+        for (String token : queryTokens(terms)) {
+            PostingList list = postings.get(token);
+            if (list != null) {
+                result = union(result, list.toArray());
+            }
+        }
+        return keysOf(result);
+    }
+
+    private static Set<String> queryTokens(String[] terms) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String term : terms) {
+            tokens.addAll(tokens(Objects.requireNonNull(term, "Term cannot be null.")));
+        }
+        return tokens;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[count++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) result[count++] = a[i++];
+        while (j < b.length) result[count++] = b[j++];
+        return Arrays.copyOf(result, count);
+    }
+
+    private SortedSet<String> keysOf(int[] found) {
+        SortedSet<String> words = new TreeSet<>();
+        for (int id : found) {
+            if (keys[id] != null) words.add(keys[id]); //skip retired ids
+        }
+        return words;
+    }
+
+    /*======= Reading and writing ======*/
+
+    @Override
+    public String get(Object key) {
+        return dict.get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        String previous = dict.put(key, value);
+        changed();
+        retire(key);
+        index(key, value);
+        return previous;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return dict.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return dict.size();
+    }
+
+    @Override
+    public String remove(Object key) {
+        String previous = dict.remove(key);
+        if (previous != null) {
+            changed();
+            retire((String) key);
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        dict.clear();
+        changed();
+        clearIndex();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        return dict.range(from, to);
+    }
+
+    /*======= The index ======*/
+
+    /**
+     * The index file no longer matches the dictionary, remove it until the next close.
+     */
+    private void changed() {
+        if (indexSaved) {
+            indexFile.delete();
+            indexSaved = false;
+        }
+    }
+
+    private void index(String key, String value) {
+        int id = nextId++;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[id] = key;
+        ids.put(key, id);
+        for (String token : tokens(value)) {
+            postings.computeIfAbsent(token, t -> new PostingList()).add(id);
+        }
+    }
+
+    private void retire(String key) {
+        Integer id = ids.remove(key);
+        if (id == null) return;
+        keys[id] = null;
+        if (++retired >= Math.max(MIN_RETIRED_IDS, nextId / 2)) {
+            compact();
+        }
+    }
+
+    /**
+     * Give the live keys new consecutive ids (in the order of the old ones) and rebuild the lists without
+     * the retired ids.
+     */
+    private void compact() {
+        int[] renumbered = new int[nextId]; // -1 for retired ids
+        int live = 0;
+        for (int id = 0; id < nextId; ++id) {
+            if (keys[id] == null) {
+                renumbered[id] = -1;
+            } else {
+                renumbered[id] = live;
+                keys[live] = keys[id];
+                ids.put(keys[live], live);
+                live++;
+            }
+        }
+        Arrays.fill(keys, live, nextId, null);
+
+        for (Iterator<Map.Entry<String, PostingList>> lists = postings.entrySet().iterator(); lists.hasNext(); ) {
+            Map.Entry<String, PostingList> entry = lists.next();
+            PostingList compacted = new PostingList();
+            for (int id : entry.getValue().toArray()) {
+                if (renumbered[id] >= 0) compacted.add(renumbered[id]); //the order of the ids is kept
+            }
+            if (compacted.size() == 0) {
+                lists.remove();
+            } else {
+                entry.setValue(compacted);
+            }
+        }
+        nextId = live;
+        retired = 0;
+    }
+
+    private void clearIndex() {
+        ids.clear();
+        keys = new String[16];
+        nextId = 0;
+        retired = 0;
+        postings.clear();
+    }
+
+    /*======= The index file ======*/
+
+    /**
+     * Load the index file.
+     *
+     * @return false if the file does not match the dictionary, or can't be read.
+     */
+    private boolean readIndex() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != MAGIC) return false;
+            int count = in.readInt();
+            if (count != dict.size()) return false; //written for other contents
+            keys = new String[Math.max(16, count)];
+            for (int id = 0; id < count; ++id) {
+                keys[id] = readString(in);
+                ids.put(keys[id], id);
+            }
+            nextId = count;
+
+            int tokens = in.readInt();
+            for (int i = 0; i < tokens; ++i) {
+                String token = readString(in);
+                int size = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                postings.put(token, new PostingList(data, size));
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false; //damaged, rebuild it
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        if (retired > 0) compact(); //only live ids are written
+        AtomicFile.write(indexFile, stream -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(nextId);
+            for (int id = 0; id < nextId; ++id) {
+                writeString(out, keys[id]);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                writeString(out, entry.getKey());
+                byte[] data = entry.getValue().getData();
+                out.writeInt(entry.getValue().size());
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            out.flush();
+        });
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
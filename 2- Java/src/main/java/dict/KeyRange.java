@@ -0,0 +1,90 @@
+package dict;
+
+import java.util.*;
+
+/**
+ * Helpers for the key range scans of {@link PersistentDictionary#range} and {@link PersistentDictionary#prefixScan}.
+ * A range runs from a first key (inclusive) to a last key (exclusive), where null means unbounded.
+ */
+final class KeyRange {
+    private KeyRange() {
+    }
+
+    /**
+     * @return the smallest string that is greater than every string starting with the prefix,
+     * or null if there is none (the prefix is empty or consists of {@link Character#MAX_VALUE} characters).
+     */
+    static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) return null;
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    /**
+     * Iterate over the entries of a sorted map whose keys are in the range, without copying them.
+     * The entries cannot be changed through the iterator.
+     *
+     * @throws IllegalArgumentException if from is greater than to
+     */
+    static Iterator<Map.Entry<String, String>> range(NavigableMap<String, String> map, String from, String to) {
+        return Collections.unmodifiableSortedMap(view(map, from, to)).entrySet().iterator();
+    }
+
+    /**
+     * @return the part of a sorted map whose keys are in the range.
+     * @throws IllegalArgumentException if from is greater than to
+     */
+    static <V> SortedMap<String, V> view(NavigableMap<String, V> map, String from, String to) {
+        if (from == null) {
+            return to == null ? map : map.headMap(to, false);
+        }
+        return to == null ? map.tailMap(from, true) : map.subMap(from, true, to, false);
+    }
+
+    /**
+     * Stop a sorted iteration at the first key that is not less than to.
+     */
+    static Iterator<Map.Entry<String, String>> until(Iterator<Map.Entry<String, String>> entries, String to) {
+        if (to == null) return entries;
+        return filter(entries, to, false, null);
+    }
+
+    /**
+     * Skip the entries whose value is the given marker (compared with ==), such as a tombstone.
+     */
+    static Iterator<Map.Entry<String, String>> skipping(Iterator<Map.Entry<String, String>> entries, String marker) {
+        return filter(entries, null, true, marker);
+    }
+
+    private static Iterator<Map.Entry<String, String>> filter(Iterator<Map.Entry<String, String>> entries,
+                                                              String to, boolean skip, String marker) {
+        return new Iterator<Map.Entry<String, String>>() {
+            private Map.Entry<String, String> next = advance();
+
+            private Map.Entry<String, String> advance() {
+                while (entries.hasNext()) {
+                    Map.Entry<String, String> entry = entries.next();
+                    if (to != null && entry.getKey().compareTo(to) >= 0) return null;
+                    if (!skip || entry.getValue() != marker) return entry;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (next == null) throw new NoSuchElementException();
+                Map.Entry<String, String> current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+}
@@ -0,0 +1,172 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Implements a persistent dictionary that is held in memory, but is stored on disk as a snapshot
+ * plus a write-ahead log of the changes made since the snapshot was written.
+ * <p>
+ * The snapshot is the dictionary file itself, in the same <pre>word:def</pre> format used by
+ * {@link InMemoryDictionary}. The log is kept next to it (the dictionary file name with a ".log" suffix).
+ * {@link #close()} only appends the keys that were put or removed since the last {@link #open()},
+ * so its cost depends on the number of changes rather than on the size of the dictionary.
+ * {@link #open()} loads the snapshot and replays the log on top of it.
+ * <p>
+ * Once the log holds more records than the dictionary has entries, a background thread folds it into
+ * a new snapshot. The new snapshot is written to a temporary file and renamed over the old one, so a
+ * crash during compaction leaves either the old snapshot and its log, or the new snapshot (in which case
+ * the log no longer matches it and is discarded).
+ */
+public class LogStructuredDictionary implements PersistentDictionary {
+    /**
+     * Logs shorter than this are never compacted, no matter how small the dictionary is.
+     */
+    static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "dictionary-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Compactions that are still running, by dictionary file. Shared by all instances so that a
+    // dictionary opened on the same file waits for the compaction started by an earlier instance.
+    private static final Map<File, Future<?>> COMPACTIONS = new ConcurrentHashMap<>();
+
+    private final File dictFile;
+    private final ChangeLog log;
+    private final TreeMap<String, String> entries = new TreeMap<>();
+
+    // Keys changed since the last open/close, mapped to their new definition (null if removed).
+    private final Map<String, String> changes = new LinkedHashMap<>();
+    // Whether the dictionary was cleared since the last open/close. Until the first open this is true,
+    // so that closing a dictionary that was never opened replaces whatever was on disk.
+    private boolean cleared = true;
+
+    public LogStructuredDictionary(File dictFile) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        this.dictFile = dictFile.getAbsoluteFile();
+        this.log = new ChangeLog(new File(this.dictFile.getPath() + ".log"));
+    }
+
+    /**
+     * @return the file holding the log of changes since the last snapshot.
+     */
+    public File getLogFile() {
+        return log.getFile();
+    }
+
+    @Override
+    public void open() throws IOException {
+        awaitCompaction();
+        entries.clear();
+        changes.clear();
+        cleared = false;
+
+        if (dictFile.exists()) {
+            DictionaryFormat.of(dictFile).read(dictFile, entries);
+        }
+        log.replay(dictFile, entries); //discards the log if it doesn't belong to this snapshot
+    }
+
+    @Override
+    public void close() throws IOException {
+        awaitCompaction();
+
+        if (!dictFile.exists()) { //nothing to append to, start with a fresh snapshot.
+            TextFormat.write(dictFile, entries);
+            log.delete();
+        } else if (cleared || !changes.isEmpty()) {
+            log.append(dictFile, cleared, changes);
+            if (log.getRecords() > Math.max(MIN_COMPACTION_RECORDS, entries.size())) {
+                startCompaction();
+            }
+        }
+        changes.clear();
+        cleared = false;
+    }
+
+    /**
+     * Write the current contents as a new snapshot in the background, then drop the log.
+     */
+    private void startCompaction() {
+        TreeMap<String, String> snapshot = new TreeMap<>(entries); //the dictionary may change while we write
+        COMPACTIONS.put(dictFile, COMPACTOR.submit(() -> {
+            TextFormat.write(dictFile, snapshot); //replaces the snapshot atomically
+            log.delete();
+            return null;
+        }));
+    }
+
+    private void awaitCompaction() throws IOException {
+        Future<?> compaction = COMPACTIONS.remove(dictFile);
+        if (compaction == null) return;
+
+        try {
+            compaction.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Background compaction of " + dictFile + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction of " + dictFile, e);
+        }
+    }
+
+    @Override
+    public String get(Object key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (value == null) {
+            throw new NullPointerException("Definition cannot be null.");
+        }
+        String previous = entries.put(key, value);
+        changes.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return entries.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String remove(Object key) {
+        String previous = entries.remove(key);
+        if (previous != null) {
+            changes.put((String) key, null);
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        changes.clear();
+        cleared = true;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        return KeyRange.range(entries, from, to);
+    }
+}
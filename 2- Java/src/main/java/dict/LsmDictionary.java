@@ -0,0 +1,523 @@
+package dict;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Implements a persistent dictionary as a log-structured merge tree, for dictionaries that are
+ * written heavily or don't fit in memory.
+ * <p>
+ * Changes go to an in-memory sorted table (the memtable). When the memtable grows beyond its budget,
+ * it is written out as an immutable {@link SegmentFile}, so all writes to disk are sequential. A lookup
+ * checks the memtable and then the segments from newest to oldest; each segment has a Bloom filter and a
+ * sparse block index, so a segment that doesn't hold the key is usually skipped without any disk access.
+ * Removed keys are recorded as tombstones until a compaction drops them. The segment blocks can be
+ * compressed, in which case a lookup inflates the one block it reads.
+ * <p>
+ * The dictionary file is a manifest listing the live segments (newest first) and the number of entries:
+ * <pre>
+ * lsm 1
+ * size 1234
+ * words.7.sst
+ * words.3.sst
+ * </pre>
+ * where the size is -1 if it isn't known. The segment files are kept next to it. Only {@link #close()} writes
+ * the manifest, so segments written since the last close are not visible to {@link #open()}, which deletes them.
+ * <p>
+ * While the dictionary is open, segments are merged in the background with a size-tiered policy: once there are
+ * {@link #COMPACTION_TRIGGER} segments, the newest run of segments in which each segment is at most
+ * {@link #TIER_RATIO} times the combined size of the newer ones is merged into one. {@link #close()} waits
+ * for the merge that is running, if any, and the next {@link #open()} picks up where it left off. A merge that
+ * fails leaves its inputs live: close still writes the manifest, and then reports the failure.
+ * <p>
+ * {@link #put} and {@link #remove} look up the key, since they return its previous definition, and keep the
+ * number of entries exact as they go. {@link #putAll} writes its batch blindly, without reading any segment,
+ * so the number of entries is not known after it: the next {@link #size()} counts the entries with a full
+ * scan, and the count is kept from then on. Bulk loads are as fast as the memtable flushes, at the cost of one
+ * scan if the size is asked for.
+ */
+public class LsmDictionary implements PersistentDictionary {
+    /**
+     * Default memtable budget, in (estimated) bytes.
+     */
+    public static final long DEFAULT_MEMTABLE_BYTES = 8 << 20;
+
+    static final int COMPACTION_TRIGGER = 4;
+    static final int TIER_RATIO = 2;
+
+    private static final String MANIFEST_HEADER = "lsm 1";
+    private static final int ENTRY_OVERHEAD = 64; // estimated bytes per memtable entry, besides the strings
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "lsm-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Compactions that are still running, by manifest file.
+    private static final Map<File, Future<?>> COMPACTIONS = new ConcurrentHashMap<>();
+
+    private final File dictFile;
+    private final long memtableBytes;
+    private final boolean compress;
+
+    private TreeMap<String, String> memtable = new TreeMap<>();
+    private long memtableSize; // estimated bytes
+    private int size; // -1 if not known since a blind write
+
+    // Guarded by this. The live segments, newest first; replaced (never modified) on every change so
+    // that readers can use the list they got without locking.
+    private volatile List<SegmentFile> segments = Collections.emptyList();
+    // Guarded by this. Segments that are no longer live, to be deleted once the manifest stops listing them.
+    private final List<SegmentFile> obsolete = new ArrayList<>();
+    // Guarded by this. The segments the running compaction reads from.
+    private final Set<SegmentFile> compacting = new HashSet<>();
+    private boolean isOpen; // guarded by this. No compaction is started while closed
+    private int nextSegment;
+
+    public LsmDictionary(File dictFile) {
+        this(dictFile, DEFAULT_MEMTABLE_BYTES);
+    }
+
+    /**
+     * @param dictFile      the manifest file; segment files are created next to it
+     * @param memtableBytes how much memory (estimated) the memtable may use before it is written to disk
+     */
+    public LsmDictionary(File dictFile, long memtableBytes) {
+        this(dictFile, memtableBytes, false);
+    }
+
+    /**
+     * @param dictFile      the manifest file; segment files are created next to it
+     * @param memtableBytes how much memory (estimated) the memtable may use before it is written to disk
+     * @param compress      whether to compress the blocks of new segments
+     */
+    public LsmDictionary(File dictFile, long memtableBytes, boolean compress) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        if (memtableBytes <= 0) {
+            throw new IllegalArgumentException("Memtable budget must be positive.");
+        }
+        this.dictFile = dictFile.getAbsoluteFile();
+        this.memtableBytes = memtableBytes;
+        this.compress = compress;
+    }
+
+    /**
+     * @return the number of live segment files.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return the estimated memory taken by the memtable, in bytes. It never exceeds the memtable budget
+     * between calls, since a write that goes over it writes the memtable out.
+     */
+    public long getMemtableBytes() {
+        return memtableSize;
+    }
+
+    @Override
+    public void open() throws IOException {
+        awaitCompactions();
+
+        synchronized (this) {
+            closeAll(segments);
+            closeAll(obsolete);
+            obsolete.clear();
+            memtable = new TreeMap<>();
+            memtableSize = 0;
+            size = 0;
+
+            List<String> names = new ArrayList<>();
+            if (dictFile.exists()) {
+                size = readManifest(names);
+            }
+
+            List<SegmentFile> live = new ArrayList<>();
+            try {
+                for (String name : names) {
+                    live.add(SegmentFile.open(new File(dictFile.getParentFile(), name)));
+                }
+            } catch (IOException e) {
+                closeAll(live);
+                throw e;
+            }
+            segments = Collections.unmodifiableList(live);
+
+            // Delete segments that were written after the last close, and find the next free segment number.
+            nextSegment = 0;
+            for (File file : segmentFiles()) {
+                if (!names.contains(file.getName())) {
+                    file.delete();
+                }
+                nextSegment = Math.max(nextSegment, segmentNumber(file) + 1);
+            }
+            isOpen = true;
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushMemtable();
+        synchronized (this) {
+            isOpen = false;
+        }
+        try {
+            awaitCompactions();
+        } finally {
+            synchronized (this) { //a failed compaction left its inputs live, list them with the new segments
+                writeManifest();
+                deleteObsolete();
+            }
+        }
+    }
+
+    /*======= Reading and writing ======*/
+
+    /**
+     * Look up the key in the memtable and then in the segments, newest first.
+     *
+     * @return the value, {@link SegmentFile#TOMBSTONE} or null if no segment mentions the key.
+     */
+    private String find(String key) {
+        String value = memtable.get(key);
+        if (value != null) return value;
+
+        try {
+            for (SegmentFile segment : segments) {
+                value = segment.get(key);
+                if (value != null) return value;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public String get(Object key) {
+        String value = find((String) Objects.requireNonNull(key, "Key cannot be null."));
+        return value == SegmentFile.TOMBSTONE ? null : value;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (value == null) {
+            throw new NullPointerException("Definition cannot be null.");
+        }
+        String previous = get(key);
+        if (previous == null && size >= 0) size++;
+        store(key, value);
+        return previous;
+    }
+
+    /**
+     * Write the batch without looking up the previous definitions; see the class comment.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> entries) {
+        for (Map.Entry<? extends String, ? extends String> entry : entries.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                throw new NullPointerException("Key and definition cannot be null.");
+            }
+        }
+        for (Map.Entry<? extends String, ? extends String> entry : entries.entrySet()) {
+            store(entry.getKey(), entry.getValue());
+        }
+        if (!entries.isEmpty()) size = -1;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the number of entries, counted with a full scan if a {@link #putAll} made it unknown.
+     */
+    @Override
+    public int size() {
+        if (size < 0) {
+            int count = 0;
+            for (Iterator<Map.Entry<String, String>> scan = range(null, null); scan.hasNext(); scan.next()) {
+                count++;
+            }
+            size = count;
+        }
+        return size;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String previous = get(key);
+        if (previous != null) {
+            if (size > 0) size--;
+            store((String) key, SegmentFile.TOMBSTONE);
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            obsolete.addAll(segments);
+            segments = Collections.emptyList();
+        }
+        memtable = new TreeMap<>();
+        memtableSize = 0;
+        size = 0;
+    }
+
+    /**
+     * Merges the memtable with the segments that were live when the scan started. Segment blocks are
+     * read as the iteration reaches them. I/O errors are thrown as {@link UncheckedIOException}.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+        sources.add(KeyRange.range(memtable, from, to));
+        for (SegmentFile segment : segments) {
+            sources.add(KeyRange.until(segment.iterator(from), to));
+        }
+        return KeyRange.skipping(new MergingIterator(sources), SegmentFile.TOMBSTONE);
+    }
+
+    private void store(String key, String value) {
+        String replaced = memtable.put(key, value);
+        memtableSize += 2L * value.length();
+        if (replaced == null) {
+            memtableSize += ENTRY_OVERHEAD + 2L * key.length();
+        } else {
+            memtableSize -= 2L * replaced.length();
+        }
+
+        if (memtableSize > memtableBytes) {
+            try {
+                flushMemtable();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            maybeCompact();
+        }
+    }
+
+    /**
+     * Write the memtable to a new segment.
+     */
+    private void flushMemtable() throws IOException {
+        if (memtable.isEmpty()) return;
+
+        File file;
+        synchronized (this) {
+            file = segmentFile(nextSegment++);
+        }
+        SegmentFile segment = SegmentFile.write(file, memtable.entrySet().iterator(), memtable.size(), compress);
+        synchronized (this) {
+            List<SegmentFile> live = new ArrayList<>(segments.size() + 1);
+            live.add(segment);
+            live.addAll(segments);
+            segments = Collections.unmodifiableList(live);
+        }
+        memtable = new TreeMap<>();
+        memtableSize = 0;
+    }
+
+    /*======= Compaction ======*/
+
+    /**
+     * Start a background compaction if there are enough segments and none is running.
+     */
+    private synchronized void maybeCompact() {
+        if (!isOpen || !compacting.isEmpty() || segments.size() < COMPACTION_TRIGGER) return;
+
+        // The newest run of segments where every segment isn't much larger than the newer ones combined.
+        List<SegmentFile> inputs = new ArrayList<>();
+        for (int start = 0; start < segments.size() - 1 && inputs.size() < 2; ++start) {
+            inputs.clear();
+            long total = 0;
+            for (SegmentFile segment : segments.subList(start, segments.size())) {
+                if (!inputs.isEmpty() && segment.length() > TIER_RATIO * total) break;
+                inputs.add(segment);
+                total += segment.length();
+            }
+        }
+        if (inputs.size() < 2) return;
+
+        boolean oldest = segments.indexOf(inputs.get(0)) + inputs.size() == segments.size(); //nothing older for tombstones to hide
+        File output = segmentFile(nextSegment++);
+        compacting.addAll(inputs);
+        COMPACTIONS.put(dictFile, COMPACTOR.submit(() -> {
+            compact(inputs, output, oldest);
+            return null;
+        }));
+    }
+
+    /**
+     * Merge the input segments (newest first) into the output file and make it live in their place.
+     */
+    private void compact(List<SegmentFile> inputs, File output, boolean dropTombstones) throws IOException {
+        SegmentFile merged = null;
+        boolean installed;
+        try {
+            List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+            int count = 0;
+            for (SegmentFile input : inputs) {
+                sources.add(input.iterator(null));
+                count += input.count();
+            }
+            Iterator<Map.Entry<String, String>> entries = new MergingIterator(sources);
+            if (dropTombstones) {
+                entries = KeyRange.skipping(entries, SegmentFile.TOMBSTONE);
+            }
+            merged = SegmentFile.write(output, entries, count, compress);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            synchronized (this) {
+                compacting.clear();
+                installed = install(inputs, merged, output);
+            }
+        }
+        if (installed) maybeCompact(); //a rejected merge would only be tried again on the same inputs
+    }
+
+    /**
+     * Replace the inputs of a compaction with its output, unless they stopped being live while it ran
+     * (the dictionary was cleared or reopened), in which case the output is thrown away.
+     *
+     * @return whether the output was installed.
+     */
+    private boolean install(List<SegmentFile> inputs, SegmentFile merged, File output) throws IOException {
+        int start = segments.indexOf(inputs.get(0));
+        boolean live = merged != null && start >= 0 && start + inputs.size() <= segments.size()
+                && segments.subList(start, start + inputs.size()).equals(inputs);
+        if (!live) {
+            if (merged != null) merged.close();
+            output.delete();
+            return false;
+        }
+
+        List<SegmentFile> replaced = new ArrayList<>(segments.subList(0, start));
+        replaced.add(merged);
+        replaced.addAll(segments.subList(start + inputs.size(), segments.size()));
+        segments = Collections.unmodifiableList(replaced);
+        obsolete.addAll(inputs);
+        return true;
+    }
+
+    private void awaitCompactions() throws IOException {
+        Future<?> compaction;
+        while ((compaction = COMPACTIONS.remove(dictFile)) != null) { //a compaction may start the next one
+            try {
+                compaction.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Background compaction of " + dictFile + " failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for compaction of " + dictFile, e);
+            }
+        }
+    }
+
+    /*======= Files ======*/
+
+    private int readManifest(List<String> names) throws IOException {
+        try (BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(dictFile), StandardCharsets.UTF_8))) {
+            String header = read.readLine();
+            if (header == null) return 0; //an empty file is an empty dictionary
+            if (!header.equals(MANIFEST_HEADER)) {
+                throw new IOException(dictFile + " is not an LSM dictionary manifest");
+            }
+            String sizeLine = read.readLine();
+            if (sizeLine == null || !sizeLine.startsWith("size ")) {
+                throw new IOException(dictFile + " is a corrupt manifest");
+            }
+            String line;
+            while ((line = read.readLine()) != null) {
+                if (!line.isEmpty()) names.add(line);
+            }
+            try {
+                return Integer.parseInt(sizeLine.substring("size ".length()));
+            } catch (NumberFormatException e) {
+                throw new IOException(dictFile + " is a corrupt manifest", e);
+            }
+        }
+    }
+
+    /**
+     * Atomically replace the manifest with the current list of segments.
+     */
+    private void writeManifest() throws IOException {
+        AtomicFile.write(dictFile, out -> {
+            BufferedWriter write = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            write.write(MANIFEST_HEADER);
+            write.newLine();
+            write.write("size " + size);
+            write.newLine();
+            for (SegmentFile segment : segments) {
+                write.write(segment.getFile().getName());
+                write.newLine();
+            }
+            write.flush();
+        });
+    }
+
+    /**
+     * Delete the segments that are no longer listed in the manifest, except those a compaction still reads.
+     */
+    private void deleteObsolete() throws IOException {
+        Iterator<SegmentFile> iterator = obsolete.iterator();
+        while (iterator.hasNext()) {
+            SegmentFile segment = iterator.next();
+            if (compacting.contains(segment)) continue;
+            segment.close();
+            segment.getFile().delete();
+            iterator.remove();
+        }
+    }
+
+    private static void closeAll(Collection<SegmentFile> segments) throws IOException {
+        for (SegmentFile segment : segments) {
+            segment.close();
+        }
+    }
+
+    private File segmentFile(int number) {
+        return new File(dictFile.getParentFile(), dictFile.getName() + "." + number + ".sst");
+    }
+
+    private List<File> segmentFiles() {
+        String prefix = dictFile.getName() + ".";
+        File[] files = dictFile.getParentFile().listFiles((dir, name) ->
+                name.startsWith(prefix) && name.endsWith(".sst") && segmentNumber(name.substring(prefix.length())) >= 0);
+        return files == null ? Collections.emptyList() : Arrays.asList(files);
+    }
+
+    private int segmentNumber(File file) {
+        return segmentNumber(file.getName().substring(dictFile.getName().length() + 1));
+    }
+
+    /**
+     * @param name the part of the file name after the manifest name and '.', e.g. "7.sst"
+     * @return the segment number, or -1 if the name isn't that of a segment.
+     */
+    private static int segmentNumber(String name) {
+        if (!name.endsWith(".sst")) return -1;
+        String number = name.substring(0, name.length() - ".sst".length());
+        if (number.isEmpty() || number.length() > 9) return -1;
+        for (int i = 0; i < number.length(); ++i) {
+            if (!Character.isDigit(number.charAt(i))) return -1;
+        }
+        return Integer.parseInt(number);
+    }
+}
@@ -0,0 +1,363 @@
+package dict;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Implements a persistent dictionary that is served directly from a memory-mapped file holding an
+ * open-addressing hash table, so opening it does not depend on the size of the dictionary.
+ * <p>
+ * The file starts with a header:
+ * <pre>magic:int version:int count:int slots:int</pre>
+ * followed by the hash table (slots is a power of two, each slot is <pre>hash:int offset:int</pre> and
+ * an offset of 0 marks an empty slot), followed by the sorted index (the offsets of all count records,
+ * in key order), followed by the records, also in key order:
+ * <pre>keyLength:int valueLength:int key value</pre>
+ * Keys and values are stored as UTF-8. Collisions are resolved by linear probing, and {@link #range}
+ * scans binary search the sorted index.
+ * <p>
+ * {@link #open()} maps the file and validates the header. Lookups probe the mapping directly;
+ * changes are kept in memory until {@link #close()}, which writes a new file and renames it into place.
+ * The file is limited to 2GB, the largest region a single mapping can cover.
+ */
+public class MappedDictionary implements PersistentDictionary {
+    static final int MAGIC = 0x4D444943; // "MDIC"
+    static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 8;
+    private static final int MIN_SLOTS = 16;
+
+    private final File dictFile;
+    private ByteBuffer mapping; // null if there is no file
+    private int slots;
+    private IntBuffer order; // the record offsets in key order, the sorted index of the mapping
+
+    // Keys changed since the last open, mapped to their new definition (null if removed). Sorted for range scans.
+    private final TreeMap<String, String> changes = new TreeMap<>();
+    // Whether the mapped entries were cleared since the last open. Until the first open this is true,
+    // so that closing a dictionary that was never opened replaces whatever was on disk.
+    private boolean cleared = true;
+    private int size;
+
+    public MappedDictionary(File dictFile) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        this.dictFile = dictFile;
+    }
+
+    @Override
+    public void open() throws IOException {
+        changes.clear();
+        cleared = false;
+        mapping = null;
+        slots = 0;
+        order = null;
+        size = 0;
+        if (!dictFile.exists() || dictFile.length() == 0) return;
+
+        try (FileChannel channel = FileChannel.open(dictFile.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(dictFile + " is too large to be mapped");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            if (length < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException(dictFile + " is not a mapped dictionary file");
+            }
+            int version = buffer.getInt(4);
+            if (version != VERSION) {
+                throw new IOException(dictFile + " has unsupported version " + version);
+            }
+            int count = buffer.getInt(8);
+            int slotCount = buffer.getInt(12);
+            if (count < 0 || slotCount < MIN_SLOTS || Integer.bitCount(slotCount) != 1
+                    || HEADER_SIZE + (long) slotCount * SLOT_SIZE + 4L * count > length) {
+                throw new IOException(dictFile + " has a corrupt header");
+            }
+            mapping = buffer;
+            slots = slotCount;
+            size = count;
+            order = slice(HEADER_SIZE + slotCount * SLOT_SIZE, count * 4).asIntBuffer();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!cleared && changes.isEmpty()) return; //the file is already up to date
+
+        File tmp = new File(dictFile.getPath() + ".tmp");
+        write(tmp);
+        AtomicFile.replace(tmp, dictFile);
+
+        changes.clear();
+        cleared = false;
+        mapping = null;
+        order = null;
+    }
+
+    /**
+     * Write the merged contents (the mapped entries overridden by the changes) as a new table.
+     * Both are merged in key order; the surviving mapped records are copied as they are. The records
+     * are written first, while the hash table and sorted index are built in memory, and the header,
+     * table and index are written in front of them at the end.
+     */
+    private void write(File file) throws IOException {
+        int slotCount = MIN_SLOTS;
+        while (slotCount < 2L * size) { //keep the load factor at most 1/2
+            slotCount <<= 1;
+        }
+        int[] table = new int[slotCount * 2]; //pairs of hash, offset
+        int[] index = new int[size];
+        long offset = HEADER_SIZE + (long) slotCount * SLOT_SIZE + 4L * size;
+        int count = 0;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(offset);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+            IntBuffer mapped = mapping != null && !cleared ? order : IntBuffer.allocate(0);
+            Iterator<Map.Entry<String, String>> changed = changes.entrySet().iterator();
+            Map.Entry<String, String> change = changed.hasNext() ? changed.next() : null;
+            int next = 0;
+            String mappedKey = next < mapped.limit() ? key(mapped.get(next)) : null;
+            byte[] scratch = new byte[256];
+
+            while (mappedKey != null || change != null) {
+                int compare = mappedKey == null ? 1 : change == null ? -1 : mappedKey.compareTo(change.getKey());
+                if (compare < 0) { //keep the mapped record, copying it as it is
+                    int record = mapped.get(next++);
+                    int keyLength = mapping.getInt(record);
+                    int valueLength = mapping.getInt(record + 4);
+                    if (scratch.length < keyLength + valueLength) {
+                        scratch = new byte[Math.max(keyLength + valueLength, scratch.length * 2)];
+                    }
+                    slice(record + 8, keyLength + valueLength).get(scratch, 0, keyLength + valueLength);
+                    index[count] = checkOffset(offset);
+                    insert(table, hash(scratch, keyLength), index[count++]);
+                    out.writeInt(keyLength);
+                    out.writeInt(valueLength);
+                    out.write(scratch, 0, keyLength + valueLength);
+                    offset += 8 + keyLength + valueLength;
+                } else {
+                    if (compare == 0) next++; //the change replaces the mapped record
+                    if (change.getValue() != null) { //not removed
+                        byte[] key = change.getKey().getBytes(StandardCharsets.UTF_8);
+                        byte[] value = change.getValue().getBytes(StandardCharsets.UTF_8);
+                        index[count] = checkOffset(offset);
+                        insert(table, hash(key), index[count++]);
+                        out.writeInt(key.length);
+                        out.writeInt(value.length);
+                        out.write(key);
+                        out.write(value);
+                        offset += 8 + key.length + value.length;
+                    }
+                    change = changed.hasNext() ? changed.next() : null;
+                }
+                if (compare <= 0) {
+                    mappedKey = next < mapped.limit() ? key(mapped.get(next)) : null;
+                }
+            }
+            out.flush();
+
+            ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE + slotCount * SLOT_SIZE + 4 * count);
+            head.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(slotCount);
+            head.asIntBuffer().put(table).put(index);
+            head.rewind();
+            channel.write(head, 0);
+            channel.force(true);
+        }
+    }
+
+    private static void insert(int[] table, int hash, int offset) {
+        int mask = table.length / 2 - 1;
+        int slot = hash & mask;
+        while (table[slot * 2 + 1] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot * 2] = hash;
+        table[slot * 2 + 1] = offset;
+    }
+
+    private static int checkOffset(long offset) throws IOException {
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("Dictionary is too large for a mapped file");
+        }
+        return (int) offset;
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer slice = mapping.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        return slice.slice();
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes of the key, followed by a final mix so the low bits are well distributed.
+     */
+    static int hash(byte[] key) {
+        return hash(key, key.length);
+    }
+
+    private static int hash(byte[] key, int length) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < length; ++i) {
+            h = (h ^ (key[i] & 0xFF)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * Find the record holding the key in the mapped table.
+     *
+     * @return the record offset, or 0 if the key is not in the table.
+     */
+    private int find(byte[] key) {
+        if (mapping == null || cleared) return 0;
+
+        int hash = hash(key);
+        int mask = slots - 1;
+        int slot = hash & mask;
+        for (int probe = 0; probe < slots; ++probe, slot = (slot + 1) & mask) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+            int record = mapping.getInt(position + 4);
+            if (record == 0) return 0;
+            if (mapping.getInt(position) == hash && keyEquals(record, key)) return record;
+        }
+        return 0; //no empty slot: the table is at most half full unless the file is corrupt
+    }
+
+    private boolean keyEquals(int record, byte[] key) {
+        if (mapping.getInt(record) != key.length) return false;
+        for (int i = 0; i < key.length; ++i) {
+            if (mapping.get(record + 8 + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    private String key(int record) {
+        byte[] key = new byte[mapping.getInt(record)];
+        slice(record + 8, key.length).get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private String value(int record) {
+        byte[] value = new byte[mapping.getInt(record + 4)];
+        slice(record + 8 + mapping.getInt(record), value.length).get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Iterate over the mapped records whose keys are in the range, in key order.
+     */
+    private Iterator<Map.Entry<String, String>> mappedRange(String from, String to) {
+        IntBuffer sorted = order;
+        int low = 0;
+        int high = sorted.limit();
+        while (from != null && low < high) { //find the first key that is not less than from
+            int middle = (low + high) >>> 1;
+            if (key(sorted.get(middle)).compareTo(from) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int first = low;
+
+        return KeyRange.until(new Iterator<Map.Entry<String, String>>() {
+            private int next = first;
+
+            @Override
+            public boolean hasNext() {
+                return next < sorted.limit();
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int record = sorted.get(next++);
+                return new AbstractMap.SimpleImmutableEntry<>(key(record), value(record));
+            }
+        }, to);
+    }
+
+    private String mappedValue(String key) {
+        int record = find(key.getBytes(StandardCharsets.UTF_8));
+        return record == 0 ? null : value(record);
+    }
+
+    @Override
+    public String get(Object key) {
+        String word = (String) key;
+        if (word == null) {
+            throw new NullPointerException("Key cannot be null.");
+        }
+        if (changes.containsKey(word)) return changes.get(word);
+        return mappedValue(word);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (value == null) {
+            throw new NullPointerException("Definition cannot be null.");
+        }
+        String previous = get(key);
+        changes.put(key, value);
+        if (previous == null) size++;
+        return previous;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String previous = get(key);
+        if (previous != null) {
+            changes.put((String) key, null);
+            size--;
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        changes.clear();
+        cleared = true;
+        size = 0;
+    }
+
+    /**
+     * Merges the changes with the mapped records, whose values are only read as the iteration reaches them.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+        sources.add(KeyRange.range(changes, from, to)); //takes precedence over the mapped records
+        if (mapping != null && !cleared) {
+            sources.add(mappedRange(from, to));
+        }
+        return KeyRange.skipping(new MergingIterator(sources), null);
+    }
+}
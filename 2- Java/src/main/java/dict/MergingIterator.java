@@ -0,0 +1,69 @@
+package dict;
+
+import java.util.*;
+
+/**
+ * Merges several iterators over entries sorted by key into a single sorted iteration.
+ * <p>
+ * The sources are given in order of precedence: when a key appears in more than one source,
+ * only the entry of the first source that has it is returned.
+ */
+final class MergingIterator implements Iterator<Map.Entry<String, String>> {
+
+    /**
+     * The next entry of one of the sources.
+     */
+    private static final class Head {
+        final int source;
+        final Iterator<Map.Entry<String, String>> iterator;
+        Map.Entry<String, String> entry;
+
+        Head(int source, Iterator<Map.Entry<String, String>> iterator) {
+            this.source = source;
+            this.iterator = iterator;
+            this.entry = iterator.next();
+        }
+    }
+
+    private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> {
+        int order = a.entry.getKey().compareTo(b.entry.getKey());
+        return order != 0 ? order : Integer.compare(a.source, b.source);
+    });
+
+    /**
+     * @param sources iterators sorted by key, highest precedence first
+     */
+    MergingIterator(List<? extends Iterator<Map.Entry<String, String>>> sources) {
+        for (int i = 0; i < sources.size(); ++i) {
+            if (sources.get(i).hasNext()) {
+                heads.add(new Head(i, sources.get(i)));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        Head head = heads.poll();
+        if (head == null) throw new NoSuchElementException();
+        Map.Entry<String, String> next = head.entry;
+        advance(head);
+
+        // Skip the same key in sources with lower precedence.
+        while (!heads.isEmpty() && heads.peek().entry.getKey().equals(next.getKey())) {
+            advance(heads.poll());
+        }
+        return next;
+    }
+
+    private void advance(Head head) {
+        if (head.iterator.hasNext()) {
+            head.entry = head.iterator.next();
+            heads.add(head);
+        }
+    }
+}
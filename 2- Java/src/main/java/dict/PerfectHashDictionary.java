@@ -0,0 +1,375 @@
+package dict;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A read-only dictionary for data that is built once and then only queried, served from a memory-mapped
+ * file indexed by a minimal perfect hash function.
+ * <p>
+ * {@link #build} computes a hash function that maps the n keys of a dictionary to the slots 0..n-1
+ * without any collision, using the hash-and-displace method (as in CHD): the keys are split into buckets
+ * of about {@link #KEYS_PER_BUCKET} keys by their hash, and for each bucket, largest first, it searches a
+ * seed that sends all the keys of the bucket to slots that are still free. Only the seeds are stored,
+ * 4 bytes per bucket. A lookup hashes the key once, mixes the hash with the seed of its bucket to get
+ * the slot, and compares the key with the one record the slot points to. There is no probing and no
+ * tree to walk, and nothing is allocated per entry when the file is opened.
+ * <p>
+ * The file starts with a header:
+ * <pre>magic:int version:int count:int buckets:int salt:long</pre>
+ * followed by the seeds (an int per bucket), the slots (the offset of a record per slot), the sorted index
+ * (the record offsets in key order, for {@link #range} scans) and the records, in key order:
+ * <pre>keyLength:int valueLength:int key value</pre>
+ * Keys and values are stored as UTF-8, and the file is limited to 2GB.
+ * The methods that change the dictionary throw {@link UnsupportedOperationException}.
+ */
+public class PerfectHashDictionary implements PersistentDictionary {
+    static final int MAGIC = 0x4D504844; // "MPHD"
+    static final int VERSION = 1;
+    /**
+     * The average bucket size. Larger buckets take less space but longer to build.
+     */
+    static final int KEYS_PER_BUCKET = 4;
+
+    private static final int HEADER_SIZE = 24;
+    // Seeds tried for a bucket before starting over with another salt, at least. The last buckets have
+    // only a few free slots left and need about n tries each, so the limit grows with n.
+    private static final int MIN_SEED_ATTEMPTS = 1 << 24;
+
+    private final File dictFile;
+    private ByteBuffer mapping; // null if the dictionary is empty or not open
+    private int count;
+    private int buckets;
+    private long salt;
+    private IntBuffer seeds;
+    private IntBuffer slots;
+    private IntBuffer sorted;
+
+    public PerfectHashDictionary(File dictFile) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        this.dictFile = dictFile;
+    }
+
+    /*======= Building ======*/
+
+    /**
+     * Write the contents of a dictionary as a perfect hash file, replacing the file atomically.
+     *
+     * @param file   the file to write
+     * @param source the dictionary to index (it must be open)
+     * @throws IOException
+     */
+    public static void build(File file, PersistentDictionary source) throws IOException {
+        List<byte[]> keys = new ArrayList<>(source.size());
+        List<byte[]> values = new ArrayList<>(source.size());
+        for (Iterator<Map.Entry<String, String>> entries = source.range(null, null); entries.hasNext(); ) {
+            Map.Entry<String, String> entry = entries.next();
+            keys.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            values.add(entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        int n = keys.size();
+        int bucketCount = Math.max(1, (n + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET);
+
+        // The seeds, and the key placed in every slot.
+        int[] bucketSeeds = new int[bucketCount];
+        int[] slotKeys = new int[n];
+        long salt = 0;
+        for (Random random = new Random(n); !place(keys, salt, bucketSeeds, slotKeys); ) {
+            salt = random.nextLong(); //very unlikely: some bucket had no seed that fits, try other hashes
+        }
+
+        long recordsOffset = HEADER_SIZE + 4L * bucketCount + 8L * n;
+        int[] offsets = new int[n]; //of the records, in key order
+        long offset = recordsOffset;
+        for (int i = 0; i < n; ++i) {
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Dictionary is too large for a perfect hash file");
+            }
+            offsets[i] = (int) offset;
+            offset += 8 + keys.get(i).length + values.get(i).length;
+        }
+
+        long finalSalt = salt;
+        AtomicFile.write(file, stream -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(bucketCount);
+            out.writeLong(finalSalt);
+            for (int seed : bucketSeeds) {
+                out.writeInt(seed);
+            }
+            for (int key : slotKeys) {
+                out.writeInt(offsets[key]);
+            }
+            for (int recordOffset : offsets) {
+                out.writeInt(recordOffset);
+            }
+            for (int i = 0; i < n; ++i) {
+                out.writeInt(keys.get(i).length);
+                out.writeInt(values.get(i).length);
+                out.write(keys.get(i));
+                out.write(values.get(i));
+            }
+            out.flush();
+        });
+    }
+
+    /**
+     * Find a seed for every bucket so that the keys fill all the slots.
+     *
+     * @return false if some bucket can't be placed with this salt.
+     */
+    private static boolean place(List<byte[]> keys, long salt, int[] bucketSeeds, int[] slotKeys) {
+        int n = keys.size();
+        int bucketCount = bucketSeeds.length;
+        long[] hashes = new long[n];
+        int[] bucketSizes = new int[bucketCount];
+        for (int i = 0; i < n; ++i) {
+            hashes[i] = hash(keys.get(i), salt);
+            bucketSizes[bucket(hashes[i], bucketCount)]++;
+        }
+
+        // The keys grouped by bucket: members[starts[b] .. starts[b + 1]).
+        int[] starts = new int[bucketCount + 1];
+        for (int b = 0; b < bucketCount; ++b) {
+            starts[b + 1] = starts[b] + bucketSizes[b];
+        }
+        int[] members = new int[n];
+        int[] filled = Arrays.copyOf(starts, bucketCount);
+        for (int i = 0; i < n; ++i) {
+            members[filled[bucket(hashes[i], bucketCount)]++] = i;
+        }
+
+        // Largest buckets first, while there are still many free slots.
+        Integer[] order = new Integer[bucketCount];
+        for (int b = 0; b < bucketCount; ++b) {
+            order[b] = b;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(bucketSizes[b], bucketSizes[a]));
+
+        int maxSeed = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_SEED_ATTEMPTS, 16L * n));
+        BitSet taken = new BitSet(n);
+        int[] placed = new int[KEYS_PER_BUCKET * 8];
+        for (int b : order) {
+            int size = bucketSizes[b];
+            if (size == 0) break; //the rest are empty too
+            if (placed.length < size) placed = new int[size];
+
+            int seed = 0;
+            search:
+            while (true) {
+                if (++seed >= maxSeed) return false;
+                for (int j = 0; j < size; ++j) {
+                    int slot = slot(hashes[members[starts[b] + j]], seed, n);
+                    for (int k = 0; k < j; ++k) {
+                        if (placed[k] == slot) continue search; //two keys of the bucket collide
+                    }
+                    if (taken.get(slot)) continue search;
+                    placed[j] = slot;
+                }
+                break;
+            }
+            bucketSeeds[b] = seed;
+            for (int j = 0; j < size; ++j) {
+                taken.set(placed[j]);
+                slotKeys[placed[j]] = members[starts[b] + j];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes of the key, starting from the salt, with a final mix.
+     */
+    private static long hash(byte[] key, long salt) {
+        long h = 0xCBF29CE484222325L ^ salt;
+        for (byte b : key) {
+            h = (h ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int bucket(long hash, int bucketCount) {
+        return (int) ((hash >>> 32) % bucketCount);
+    }
+
+    private static int slot(long hash, int seed, int slotCount) {
+        return (int) ((mix(hash + seed * 0x9E3779B97F4A7C15L) >>> 1) % slotCount);
+    }
+
+    /*======= Reading ======*/
+
+    @Override
+    public void open() throws IOException {
+        mapping = null;
+        count = 0;
+        if (!dictFile.exists()) return;
+
+        try (FileChannel channel = FileChannel.open(dictFile.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(dictFile + " is too large to be mapped");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (length < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException(dictFile + " is not a perfect hash dictionary file");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException(dictFile + " has unsupported version " + buffer.getInt(4));
+            }
+            int keys = buffer.getInt(8);
+            int bucketCount = buffer.getInt(12);
+            if (keys < 0 || bucketCount <= 0 || HEADER_SIZE + 4L * bucketCount + 8L * keys > length) {
+                throw new IOException(dictFile + " has a corrupt header");
+            }
+            salt = buffer.getLong(16);
+            buckets = bucketCount;
+            seeds = slice(buffer, HEADER_SIZE, 4 * bucketCount).asIntBuffer();
+            slots = slice(buffer, HEADER_SIZE + 4 * bucketCount, 4 * keys).asIntBuffer();
+            sorted = slice(buffer, HEADER_SIZE + 4 * bucketCount + 4 * keys, 4 * keys).asIntBuffer();
+            mapping = buffer;
+            count = keys;
+        }
+    }
+
+    /**
+     * Release the mapping. There is nothing to write, the dictionary cannot be changed.
+     */
+    @Override
+    public void close() {
+        mapping = null;
+        count = 0;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        return slice.slice();
+    }
+
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        slice(mapping, offset, length).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String key(int record) {
+        return string(record + 8, mapping.getInt(record));
+    }
+
+    private String value(int record) {
+        return string(record + 8 + mapping.getInt(record), mapping.getInt(record + 4));
+    }
+
+    /**
+     * @return the offset of the record holding the key, or 0 if the key is not in the dictionary.
+     */
+    private int find(Object key) {
+        String word = (String) Objects.requireNonNull(key, "Key cannot be null.");
+        if (count == 0) return 0;
+
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(bytes, salt);
+        int record = slots.get(slot(hash, seeds.get(bucket(hash, buckets)), count));
+
+        if (mapping.getInt(record) != bytes.length) return 0; //every key hashes to some slot, check it is ours
+        for (int i = 0; i < bytes.length; ++i) {
+            if (mapping.get(record + 8 + i) != bytes[i]) return 0;
+        }
+        return record;
+    }
+
+    @Override
+    public String get(Object key) {
+        int record = find(key);
+        return record == 0 ? null : value(record);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != 0;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            throw new IllegalArgumentException("Range start is after its end.");
+        }
+        int first = from == null ? 0 : lowerBound(from);
+        int last = to == null ? count : lowerBound(to);
+
+        return new Iterator<Map.Entry<String, String>>() {
+            private int next = first;
+
+            @Override
+            public boolean hasNext() {
+                return next < last;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int record = sorted.get(next++);
+                return new AbstractMap.SimpleImmutableEntry<>(key(record), value(record));
+            }
+        };
+    }
+
+    /**
+     * @return the index in key order of the first key that is not less than the key.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (key(sorted.get(middle)).compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /*======= Writing is not supported ======*/
+
+    @Override
+    public String put(String key, String value) {
+        throw new UnsupportedOperationException("A perfect hash dictionary is read-only, rebuild it instead.");
+    }
+
+    @Override
+    public String remove(Object key) {
+        throw new UnsupportedOperationException("A perfect hash dictionary is read-only, rebuild it instead.");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A perfect hash dictionary is read-only, rebuild it instead.");
+    }
+}
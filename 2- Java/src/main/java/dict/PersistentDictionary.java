@@ -1,6 +1,11 @@
 package dict;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * Stores a dictionary: a map of words to definitions.
@@ -102,4 +107,99 @@ public interface PersistentDictionary {
      * Removes all the mappings from this map.
      */
     void clear();
+
+
+    /*======= Batches ======*/
+
+    /**
+     * Copies all of the mappings from the specified map to this map, as if by calling {@link #put} for each
+     * of them. Implementations may apply the whole batch at once (in a single pass, under a single lock,
+     * or as a single log record), which is much faster than separate calls.
+     * A batch in ascending key order (such as a {@link java.util.SortedMap}) is usually the fastest.
+     *
+     * @param entries the mappings to be stored in this map
+     * @throws NullPointerException if a key or value is null
+     */
+    default void putAll(Map<? extends String, ? extends String> entries) {
+        for (Map.Entry<? extends String, ? extends String> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the mappings of the given keys, as if by calling {@link #get} for each of them.
+     *
+     * @param keys the keys to look up
+     * @return the mappings of the keys that are in this map, sorted by key
+     * @throws NullPointerException if a key is null
+     */
+    default SortedMap<String, String> getAll(Collection<? extends String> keys) {
+        SortedMap<String, String> found = new TreeMap<>();
+        for (String key : keys) {
+            String value = get(key);
+            if (value != null) found.put(key, value);
+        }
+        return found;
+    }
+
+    /**
+     * Removes the mappings of the given keys, as if by calling {@link #remove} for each of them.
+     *
+     * @param keys the keys whose mappings are to be removed
+     * @return the number of mappings that were removed
+     * @throws NullPointerException if a key is null
+     */
+    default int removeAll(Collection<? extends String> keys) {
+        int removed = 0;
+        for (String key : keys) {
+            if (remove(key) != null) removed++;
+        }
+        return removed;
+    }
+
+
+    /*======= Ordered scans ======*/
+
+    /**
+     * Returns the mappings whose keys are in the given range, in ascending key order.
+     * The entries are produced lazily, so a scan that stops early only reads the entries it returned.
+     * The dictionary may not be changed while the iteration is in progress.
+     *
+     * @param from the lowest key to return (inclusive), or null to start at the first key
+     * @param to   the key to stop at (exclusive), or null to continue to the last key
+     * @return an iterator over the mappings in the range; the entries cannot be modified
+     * @throws IllegalArgumentException if from is greater than to
+     */
+    Iterator<Map.Entry<String, String>> range(String from, String to);
+
+    /**
+     * Returns the mappings whose keys start with the given prefix, in ascending key order.
+     * Like {@link #range}, the entries are produced lazily.
+     *
+     * @param prefix the prefix of the keys to return
+     * @return an iterator over the mappings whose keys start with the prefix
+     * @throws NullPointerException if the prefix is null
+     */
+    default Iterator<Map.Entry<String, String>> prefixScan(String prefix) {
+        if (prefix == null) {
+            throw new NullPointerException("Prefix cannot be null.");
+        }
+        return range(prefix, KeyRange.prefixEnd(prefix));
+    }
+
+    /**
+     * Returns the mappings whose keys are at most maxDistance edits (insertions, deletions or
+     * substitutions of a character) away from the given key, such as the correct spellings of a misspelled
+     * word. The search walks the sorted keys with a Levenshtein automaton, skipping every range of keys
+     * whose common prefix is already too far from the key, so it reads a small fraction of the keys.
+     *
+     * @param key         the key to look up
+     * @param maxDistance the maximal number of edits
+     * @return the matching mappings, sorted by key
+     * @throws NullPointerException     if the key is null
+     * @throws IllegalArgumentException if maxDistance is negative
+     */
+    default SortedMap<String, String> fuzzyGet(String key, int maxDistance) {
+        return FuzzyLookup.search(this, key, maxDistance);
+    }
 }
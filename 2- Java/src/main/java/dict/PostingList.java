@@ -0,0 +1,84 @@
+package dict;
+
+import java.util.Arrays;
+
+/**
+ * A sorted list of distinct non-negative ints, compressed as the differences between consecutive
+ * values, each written as a varint (7 bits per byte, low bits first, the high bit set on all bytes but
+ * the last). Nearby ids take a single byte each.
+ * <p>
+ * Ids can only be appended in increasing order; the list is decoded as a whole to be read.
+ */
+final class PostingList {
+    private byte[] data;
+    private int length; // bytes used in data
+    private int count;
+    private int last = -1; // the last id, -1 if there is none
+
+    PostingList() {
+        data = new byte[4];
+    }
+
+    /**
+     * Wrap encoded data, as written by {@link #getData()}.
+     */
+    PostingList(byte[] data, int count) {
+        this.data = data;
+        this.length = data.length;
+        this.count = count;
+        this.last = count == 0 ? -1 : toArray()[count - 1];
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return the encoded list, exactly as long as it is.
+     */
+    byte[] getData() {
+        return length == data.length ? data : Arrays.copyOf(data, length);
+    }
+
+    /**
+     * Append an id, which must be greater than all the ids in the list.
+     */
+    void add(int id) {
+        if (id <= last) {
+            throw new IllegalArgumentException("Ids must be added in increasing order.");
+        }
+        if (data.length - length < 5) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+        }
+        int delta = last < 0 ? id : id - last; //the first id is stored as is
+        while ((delta & ~0x7F) != 0) {
+            data[length++] = (byte) (delta & 0x7F | 0x80);
+            delta >>>= 7;
+        }
+        data[length++] = (byte) delta;
+        last = id;
+        count++;
+    }
+
+    /**
+     * @return the ids, in increasing order.
+     */
+    int[] toArray() {
+        int[] ids = new int[count];
+        int position = 0;
+        int previous = 0;
+        for (int i = 0; i < count; ++i) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += delta;
+            ids[i] = previous;
+        }
+        return ids;
+    }
+}
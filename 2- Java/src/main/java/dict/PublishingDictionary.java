@@ -0,0 +1,165 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Publishes the changes made to another persistent dictionary as an ordered change feed, so that
+ * {@link FollowerDictionary} replicas, in this process or in others on the same machine, stay current
+ * by applying each change instead of reloading the whole dictionary.
+ * <p>
+ * Every {@link #close()} first appends the changes made since the last close to the feed file (such as the
+ * dictionary file with a ".feed" suffix) as a single numbered batch, see {@link ChangeFeed} for its format;
+ * then it closes the wrapped dictionary, and records that the dictionary holds the batch in a small file
+ * next to the feed (the feed file name with an ".applied" suffix). A close without changes publishes nothing.
+ * Once the batches hold more records than twice the dictionary, the next {@link #open()} rewrites the feed
+ * as a snapshot of the dictionary, so it never grows much larger than the dictionary itself.
+ * <p>
+ * If the program dies after publishing a batch and before recording it as applied, the followers may have
+ * applied a batch the dictionary lacks. The next {@link #open()} then rewrites the feed as a snapshot numbered
+ * after that batch, which the followers apply in its place, so they never stay diverged from the dictionary.
+ * <p>
+ * All changes must be made through this dictionary, and there may only be one publisher per feed.
+ * Like the dictionaries it wraps, it is not thread-safe.
+ */
+public class PublishingDictionary implements PersistentDictionary {
+    /**
+     * The feed is only rewritten once it holds at least this many records.
+     */
+    static final int MIN_SNAPSHOT_RECORDS = 1024;
+
+    private final PersistentDictionary dict;
+    private final ChangeFeed feed;
+    private final File appliedFile; // the feed id and sequence of the last batch the dictionary is known to hold
+
+    private final Map<String, String> pending = new LinkedHashMap<>(); // null for removed keys
+    private boolean cleared; // the dictionary was cleared before the pending changes
+
+    /**
+     * @param dict     the dictionary whose changes are published
+     * @param feedFile the file the changes are published to
+     */
+    public PublishingDictionary(PersistentDictionary dict, File feedFile) {
+        if (dict == null) {
+            throw new IllegalArgumentException("Dictionary cannot be null.");
+        }
+        if (feedFile == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        this.dict = dict;
+        this.feed = new ChangeFeed(feedFile);
+        this.appliedFile = new File(feedFile.getPath() + ".applied");
+    }
+
+    /**
+     * @return the sequence number of the last batch published, -1 if none.
+     * A follower that has applied it is up to date as of the last close.
+     */
+    public long getPublishedSequence() {
+        return feed.getSequence();
+    }
+
+    @Override
+    public void open() throws IOException {
+        dict.open();
+        pending.clear(); //undone by the open
+        cleared = false;
+        if (!feed.recover() || !isApplied()) {
+            feed.rewrite(dict.range(null, null), true); //start a feed, or replace a batch the dictionary may lack
+            markApplied();
+        } else if (feed.getRecords() > Math.max(MIN_SNAPSHOT_RECORDS, 2L * dict.size())) {
+            feed.rewrite(dict.range(null, null), false); //compact the feed
+            markApplied();
+        }
+    }
+
+    /**
+     * Publish the changes made since the last close, then close the wrapped dictionary.
+     */
+    @Override
+    public void close() throws IOException {
+        if (pending.isEmpty() && !cleared) {
+            dict.close();
+            return;
+        }
+
+        feed.append(cleared, pending); //durable before the dictionary is, see the class comment
+        pending.clear();
+        cleared = false;
+        dict.close();
+        markApplied();
+    }
+
+    /**
+     * @return whether the dictionary is known to hold the last batch of the feed.
+     */
+    private boolean isApplied() throws IOException {
+        if (!appliedFile.exists()) return false;
+        String applied = new String(Files.readAllBytes(appliedFile.toPath()), StandardCharsets.UTF_8);
+        return applied.equals(feed.getId() + " " + feed.getSequence());
+    }
+
+    /**
+     * Record that the dictionary holds the last batch of the feed.
+     */
+    private void markApplied() throws IOException {
+        byte[] applied = (feed.getId() + " " + feed.getSequence()).getBytes(StandardCharsets.UTF_8);
+        AtomicFile.write(appliedFile, out -> out.write(applied));
+    }
+
+    /*======= Reading and writing ======*/
+
+    @Override
+    public String get(Object key) {
+        return dict.get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        String previous = dict.put(key, value);
+        pending.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> entries) {
+        dict.putAll(entries);
+        pending.putAll(entries);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return dict.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return dict.size();
+    }
+
+    @Override
+    public String remove(Object key) {
+        String previous = dict.remove(key);
+        if (previous != null) {
+            pending.put((String) key, null);
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        dict.clear();
+        pending.clear(); //the clear is published instead
+        cleared = true;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        return dict.range(from, to);
+    }
+}
@@ -0,0 +1,453 @@
+package dict;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An immutable file of entries sorted by key, as written by {@link LsmDictionary} and by
+ * {@link DictionaryFormat#COMPRESSED}.
+ * <p>
+ * The file starts with the 4 magic bytes "\0SST" and a generation:long (a random number picked whenever
+ * {@link DictionaryFormat#COMPRESSED} writes the file, 0 for the segments of {@link LsmDictionary}),
+ * followed by the entries, grouped into blocks of about
+ * {@link #BLOCK_SIZE} bytes ({@link #COMPRESSED_BLOCK_SIZE} if compressed). Each entry is
+ * <pre>keyLength:varint key flag:byte [valueLength:varint value]</pre>
+ * where the flag is 1 for a removed key (a tombstone, which has no value) and 0 otherwise,
+ * and strings are UTF-8. A block may be compressed with {@link Deflater}.
+ * The blocks are followed by a sparse index (the first key, offset, stored length and uncompressed length
+ * of every block, where an uncompressed length of 0 means the block is stored as is),
+ * a {@link BloomFilter} of all the keys, and a footer:
+ * <pre>indexOffset:long bloomOffset:long count:int version:int magic:int</pre>
+ * Opening a segment only reads the index and the filter; a lookup that passes the filter reads
+ * (and inflates) a single block.
+ */
+final class SegmentFile implements Closeable {
+    /**
+     * The value returned for keys that were removed in this segment. Compare with ==.
+     */
+    static final String TOMBSTONE = new String("<removed>");
+
+    static final byte[] HEADER = {0, 'S', 'S', 'T'};
+    static final int MAGIC = 0x53535431; // "SST1"
+    static final int VERSION = 3;
+    static final int BLOCK_SIZE = 4096;
+    /**
+     * Deflate compresses larger blocks better, at the cost of inflating more for a lookup.
+     */
+    static final int COMPRESSED_BLOCK_SIZE = 16384;
+
+    private static final int FOOTER_SIZE = 8 + 8 + 4 + 4 + 4;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long length;
+    private final int count;
+    private final String[] firstKeys; // the sparse index
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] rawLengths; // 0 for blocks that are not compressed
+    private final BloomFilter bloom;
+
+    private SegmentFile(File file, FileChannel channel, long length, int count, String[] firstKeys,
+                        long[] offsets, int[] lengths, int[] rawLengths, BloomFilter bloom) {
+        this.file = file;
+        this.channel = channel;
+        this.length = length;
+        this.count = count;
+        this.firstKeys = firstKeys;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.rawLengths = rawLengths;
+        this.bloom = bloom;
+    }
+
+    /**
+     * Write a new segment, and force it to disk.
+     *
+     * @param file            the file to write
+     * @param entries         the entries in ascending key order; {@link #TOMBSTONE} values mark removed keys
+     * @param expectedEntries (an upper bound on) the number of entries, used to size the Bloom filter
+     * @param compress        whether to compress the blocks
+     * @return the new segment, opened for reading
+     * @throws IOException
+     */
+    static SegmentFile write(File file, Iterator<Map.Entry<String, String>> entries, int expectedEntries,
+                             boolean compress) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            write(out, entries, expectedEntries, compress, 0);
+            out.getFD().sync(); //before a manifest can list it
+        }
+        return open(file);
+    }
+
+    /**
+     * Write a segment to a stream, which is flushed but not closed.
+     *
+     * @param generation the generation written in the header
+     * @see #write(File, Iterator, int, boolean)
+     */
+    static void write(OutputStream stream, Iterator<Map.Entry<String, String>> entries, int expectedEntries,
+                      boolean compress, long generation) throws IOException {
+        BloomFilter bloom = new BloomFilter(expectedEntries);
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        int blockSize = compress ? COMPRESSED_BLOCK_SIZE : BLOCK_SIZE;
+        ByteArrayOutputStream block = new ByteArrayOutputStream(blockSize * 2);
+        Deflater deflater = compress ? new Deflater() : null;
+        byte[] deflated = new byte[compress ? blockSize * 2 : 0];
+        String blockFirstKey = null;
+        int blocks = 0;
+        int count = 0;
+        long position = HEADER.length + 8;
+
+        try {
+            OutputStream out = new BufferedOutputStream(stream, 1 << 16);
+            DataOutputStream dataOut = new DataOutputStream(out);
+            out.write(HEADER);
+            dataOut.writeLong(generation);
+            while (entries.hasNext() || block.size() > 0) {
+                if (entries.hasNext()) {
+                    Map.Entry<String, String> entry = entries.next();
+                    if (block.size() == 0) blockFirstKey = entry.getKey();
+
+                    writeString(block, entry.getKey());
+                    if (entry.getValue() == TOMBSTONE) {
+                        block.write(1);
+                    } else {
+                        block.write(0);
+                        writeString(block, entry.getValue());
+                    }
+                    bloom.add(entry.getKey());
+                    count++;
+                    if (block.size() < blockSize) continue;
+                }
+
+                // The block is full, or this is the last one.
+                int stored = block.size();
+                int rawLength = 0;
+                if (deflater != null) {
+                    byte[] raw = block.toByteArray();
+                    deflater.reset();
+                    deflater.setInput(raw);
+                    deflater.finish();
+                    if (deflated.length < raw.length) deflated = new byte[raw.length];
+                    int compressed = deflater.deflate(deflated, 0, deflated.length);
+                    if (deflater.finished() && compressed < raw.length) { //otherwise store it as is
+                        stored = compressed;
+                        rawLength = raw.length;
+                    }
+                }
+                writeIndexEntry(indexOut, blockFirstKey, position, stored, rawLength);
+                if (rawLength > 0) {
+                    out.write(deflated, 0, stored);
+                } else {
+                    block.writeTo(out);
+                }
+                position += stored;
+                block.reset();
+                blocks++;
+            }
+
+            long indexOffset = position;
+            dataOut.writeInt(blocks);
+            index.writeTo(dataOut);
+            long bloomOffset = indexOffset + 4 + index.size();
+            bloom.write(dataOut);
+
+            dataOut.writeLong(indexOffset);
+            dataOut.writeLong(bloomOffset);
+            dataOut.writeInt(count);
+            dataOut.writeInt(VERSION);
+            dataOut.writeInt(MAGIC);
+            dataOut.flush();
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+    }
+
+    private static void writeIndexEntry(DataOutputStream index, String firstKey, long offset, int length,
+                                        int rawLength) throws IOException {
+        writeString(index, firstKey);
+        index.writeLong(offset);
+        index.writeInt(length);
+        index.writeInt(rawLength);
+    }
+
+    private static void writeString(OutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        BinaryFormat.writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Open an existing segment, reading its index and Bloom filter.
+     */
+    static SegmentFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long length = channel.size();
+            if (length < FOOTER_SIZE) {
+                throw new IOException(file + " is not a segment file");
+            }
+            ByteBuffer footer = read(channel, length - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            long bloomOffset = footer.getLong();
+            int count = footer.getInt();
+            int version = footer.getInt();
+            if (footer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a segment file");
+            }
+            if (version != VERSION) {
+                throw new IOException(file + " has unsupported version " + version);
+            }
+            if (indexOffset < 0 || bloomOffset < indexOffset || bloomOffset > length - FOOTER_SIZE) {
+                throw new IOException(file + " has a corrupt footer");
+            }
+
+            ByteBuffer indexBuffer = read(channel, indexOffset, (int) (bloomOffset - indexOffset));
+            Cursor index = new Cursor(indexBuffer.array(), 0, indexBuffer.limit());
+            int blocks = index.readInt();
+            String[] firstKeys = new String[blocks];
+            long[] offsets = new long[blocks];
+            int[] lengths = new int[blocks];
+            int[] rawLengths = new int[blocks];
+            for (int i = 0; i < blocks; ++i) {
+                firstKeys[i] = index.readString();
+                offsets[i] = index.readLong();
+                lengths[i] = index.readInt();
+                rawLengths[i] = index.readInt();
+            }
+
+            ByteBuffer bloomBuffer = read(channel, bloomOffset, (int) (length - FOOTER_SIZE - bloomOffset));
+            BloomFilter bloom = BloomFilter.read(new DataInputStream(new ByteArrayInputStream(bloomBuffer.array())));
+            return new SegmentFile(file, channel, length, count, firstKeys, offsets, lengths, rawLengths, bloom);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the generation in the header of the file.
+     */
+    static long generation(File file) throws IOException {
+        byte[] head = new byte[HEADER.length + 8];
+        if (DictionaryFormat.readHead(file, head) < head.length) {
+            throw new EOFException("Unexpected end of segment file");
+        }
+        return ByteBuffer.wrap(head).getLong(HEADER.length);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of segment file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the size of the file in bytes.
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return the number of entries (including tombstones).
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Look up a key.
+     *
+     * @return the value, {@link #TOMBSTONE} if the key was removed in this segment, or null if the
+     * segment doesn't mention the key.
+     * @throws IOException
+     */
+    String get(String key) throws IOException {
+        if (!bloom.mightContain(key)) return null; //most misses end here, without touching the disk
+
+        int block = blockFor(key);
+        if (block < 0) return null;
+
+        byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+        Cursor cursor = readBlock(block);
+        while (cursor.hasMore()) {
+            int keyLength = cursor.readVarint();
+            boolean match = cursor.matches(wanted, keyLength);
+            cursor.skip(keyLength);
+            boolean removed = cursor.readByte() == 1;
+            if (match) {
+                return removed ? TOMBSTONE : cursor.readString();
+            }
+            if (!removed) cursor.skip(cursor.readVarint());
+        }
+        return null;
+    }
+
+    /**
+     * Iterate over the entries in key order, including tombstones, starting at the first key
+     * that is not less than from.
+     * I/O errors are thrown as {@link UncheckedIOException}.
+     *
+     * @param from the first key to return, or null to start at the beginning
+     */
+    Iterator<Map.Entry<String, String>> iterator(String from) {
+        int first = from == null ? 0 : Math.max(0, blockFor(from));
+
+        return new Iterator<Map.Entry<String, String>>() {
+            private int block = first;
+            private Cursor cursor;
+            private Map.Entry<String, String> next = advance();
+
+            private Map.Entry<String, String> advance() {
+                try {
+                    while (true) {
+                        if (cursor == null || !cursor.hasMore()) {
+                            if (block >= firstKeys.length) return null;
+                            cursor = readBlock(block++);
+                        }
+                        String key = cursor.readString();
+                        String value = cursor.readByte() == 1 ? TOMBSTONE : cursor.readString();
+                        if (from == null || key.compareTo(from) >= 0) {
+                            return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (next == null) throw new NoSuchElementException();
+                Map.Entry<String, String> current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    /**
+     * @return the last block whose first key is not greater than the key, or -1 if the key
+     * is before all the blocks.
+     */
+    private int blockFor(String key) {
+        int index = Arrays.binarySearch(firstKeys, key);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private Cursor readBlock(int block) throws IOException {
+        ByteBuffer buffer = read(channel, offsets[block], lengths[block]);
+        if (rawLengths[block] == 0) {
+            return new Cursor(buffer.array(), 0, buffer.limit());
+        }
+
+        byte[] raw = new byte[rawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer.array(), 0, buffer.limit());
+            int inflated = inflater.inflate(raw);
+            if (inflated != raw.length || !inflater.finished()) {
+                throw new IOException(file + " has a corrupt block");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(file + " has a corrupt block", e);
+        } finally {
+            inflater.end();
+        }
+        return new Cursor(raw, 0, raw.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Decodes the contents of a block or the index.
+     */
+    private static final class Cursor {
+        private final byte[] data;
+        private int position;
+        private final int end;
+
+        Cursor(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        boolean hasMore() {
+            return position < end;
+        }
+
+        int readByte() throws IOException {
+            if (position >= end) throw new EOFException("Truncated segment block");
+            return data[position++];
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed length in segment file");
+        }
+
+        int readInt() throws IOException {
+            return (readByte() & 0xFF) << 24 | (readByte() & 0xFF) << 16 | (readByte() & 0xFF) << 8 | (readByte() & 0xFF);
+        }
+
+        long readLong() throws IOException {
+            return (long) readInt() << 32 | (readInt() & 0xFFFFFFFFL);
+        }
+
+        void skip(int n) throws IOException {
+            if (n < 0 || n > end - position) throw new EOFException("Truncated segment block");
+            position += n;
+        }
+
+        String readString() throws IOException {
+            int length = readVarint();
+            int start = position;
+            skip(length);
+            return new String(data, start, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return whether the next length bytes equal the given bytes (without consuming them).
+         */
+        boolean matches(byte[] bytes, int length) {
+            if (length != bytes.length || length > end - position) return false;
+            for (int i = 0; i < length; ++i) {
+                if (data[position + i] != bytes[i]) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package dict;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent dictionary split into several {@link InMemoryDictionary} shards, each in its own file, so that
+ * opening and closing it reads and writes the files in parallel.
+ * <p>
+ * Keys are assigned to shards by their hash. The dictionary file is a manifest that records the number of
+ * shards:
+ * <pre>
+ * #sharded-dictionary 1
+ * shards 8
+ * </pre>
+ * and shard i is stored next to it, in a file named after the manifest with a ".i" suffix (with its own
+ * ".delta" file). The shard count given to the constructor is only used to create a new dictionary; an
+ * existing dictionary keeps the count recorded in its manifest.
+ * <p>
+ * Since each shard tracks its own changes, closing the dictionary does no I/O at all for the shards that
+ * were not changed, and only appends the changes of the others to their delta files. Range scans merge
+ * the sorted shards. Like {@link InMemoryDictionary}, it is not thread-safe.
+ */
+public class ShardedDictionary implements PersistentDictionary {
+    static final String MANIFEST_HEADER = "#sharded-dictionary 1";
+
+    private final File dictFile;
+    private final int defaultShards;
+    private final DictionaryFormat format;
+    private final ThreadPoolExecutor workers;
+    private InMemoryDictionary[] shards;
+    private boolean unlisted = true; // whether the manifest still has to be written
+
+    /**
+     * @param dictFile the manifest file; shard files are created next to it
+     * @param shards   the number of shards of a new dictionary
+     */
+    public ShardedDictionary(File dictFile, int shards) {
+        this(dictFile, shards, DictionaryFormat.TEXT);
+    }
+
+    /**
+     * @param dictFile the manifest file; shard files are created next to it
+     * @param shards   the number of shards of a new dictionary
+     * @param format   the format the shard files are written in
+     */
+    public ShardedDictionary(File dictFile, int shards, DictionaryFormat format) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive.");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("Format cannot be null.");
+        }
+        this.dictFile = dictFile;
+        this.defaultShards = shards;
+        this.format = format;
+        this.shards = createShards(shards);
+
+        int threads = Math.min(shards, Runtime.getRuntime().availableProcessors());
+        workers = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "shard io " + dictFile.getName());
+            thread.setDaemon(true); //never keeps the program alive
+            return thread;
+        });
+        workers.allowCoreThreadTimeOut(true); //no threads between opens and closes
+    }
+
+    /**
+     * @return the number of shards of the dictionary (as recorded in its manifest, once it was opened).
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the file holding the shard with the given index.
+     */
+    File getShardFile(int shard) {
+        return new File(dictFile.getPath() + "." + shard);
+    }
+
+    private InMemoryDictionary[] createShards(int count) {
+        InMemoryDictionary[] created = new InMemoryDictionary[count];
+        for (int i = 0; i < count; ++i) {
+            created[i] = new InMemoryDictionary(getShardFile(i), format);
+        }
+        return created;
+    }
+
+    @Override
+    public void open() throws IOException {
+        int count = dictFile.exists() ? readManifest() : 0;
+        boolean fresh = count == 0;
+        if (fresh) count = defaultShards;
+        if (count != shards.length) {
+            shards = createShards(count);
+        }
+
+        forEachShard(shard -> {
+            shard.open();
+            if (fresh) {
+                shard.clear(); //left over from a dictionary whose manifest was deleted
+            }
+        });
+        unlisted = fresh;
+    }
+
+    @Override
+    public void close() throws IOException {
+        forEachShard(InMemoryDictionary::close); //a shard without changes writes nothing
+        if (unlisted || !dictFile.exists()) {
+            writeManifest();
+            unlisted = false;
+        }
+    }
+
+    /*======= Reading and writing ======*/
+
+    private InMemoryDictionary shard(Object key) {
+        return shards[shardIndex(key)];
+    }
+
+    private int shardIndex(Object key) {
+        int hash = Objects.requireNonNull(key, "Key cannot be null.").hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    @Override
+    public String get(Object key) {
+        return shard(key).get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return shard(key).put(key, value);
+    }
+
+    /**
+     * Splits the batch by shard, and puts each part as a batch into its shard.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> batch) {
+        List<Map<String, String>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; ++i) {
+            parts.add(batch instanceof SortedMap ? new TreeMap<>() : new LinkedHashMap<>()); //keeps the order of the batch
+        }
+        for (Map.Entry<? extends String, ? extends String> entry : batch.entrySet()) {
+            parts.get(shardIndex(entry.getKey())).put(entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < shards.length; ++i) {
+            if (!parts.get(i).isEmpty()) shards[i].putAll(parts.get(i));
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return shard(key).containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (InMemoryDictionary shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String remove(Object key) {
+        return shard(key).remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for (InMemoryDictionary shard : shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Merges the ranges of all the shards, which hold disjoint keys.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        List<Iterator<Map.Entry<String, String>>> ranges = new ArrayList<>(shards.length);
+        for (InMemoryDictionary shard : shards) {
+            ranges.add(shard.range(from, to));
+        }
+        return new MergingIterator(ranges);
+    }
+
+    /*======= Shards and manifest ======*/
+
+    /**
+     * Work on a single shard.
+     */
+    private interface ShardAction {
+        void run(InMemoryDictionary shard) throws IOException;
+    }
+
+    /**
+     * Run an action on every shard in parallel, and wait for all of them to finish.
+     *
+     * @throws IOException the first failure, with the failures of other shards suppressed in it
+     */
+    private void forEachShard(ShardAction action) throws IOException {
+        List<Future<?>> pending = new ArrayList<>(shards.length);
+        for (InMemoryDictionary shard : shards) {
+            pending.add(workers.submit(() -> {
+                action.run(shard);
+                return null;
+            }));
+        }
+
+        IOException failure = null;
+        for (Future<?> future : pending) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                if (failure == null) {
+                    failure = (IOException) cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the shards");
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * @return the number of shards, or 0 if the manifest is empty (a new dictionary).
+     */
+    private int readManifest() throws IOException {
+        try (BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(dictFile), StandardCharsets.UTF_8))) {
+            String header = read.readLine();
+            if (header == null) return 0;
+            if (!header.equals(MANIFEST_HEADER)) {
+                throw new IOException(dictFile + " is not a sharded dictionary manifest");
+            }
+            String shardsLine = read.readLine();
+            if (shardsLine == null || !shardsLine.startsWith("shards ")) {
+                throw new IOException(dictFile + " is a corrupt manifest");
+            }
+            try {
+                int count = Integer.parseInt(shardsLine.substring("shards ".length()));
+                if (count <= 0) throw new IOException(dictFile + " is a corrupt manifest");
+                return count;
+            } catch (NumberFormatException e) {
+                throw new IOException(dictFile + " is a corrupt manifest", e);
+            }
+        }
+    }
+
+    /**
+     * Atomically write the manifest. The shards are written before it, so the manifest only ever lists
+     * shards that are complete.
+     */
+    private void writeManifest() throws IOException {
+        AtomicFile.write(dictFile, out -> {
+            BufferedWriter write = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            write.write(MANIFEST_HEADER);
+            write.newLine();
+            write.write("shards " + shards.length);
+            write.newLine();
+            write.flush();
+        });
+    }
+}
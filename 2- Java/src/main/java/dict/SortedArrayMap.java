@@ -0,0 +1,120 @@
+package dict;
+
+import java.util.*;
+
+/**
+ * A read-only sorted map over parallel arrays of keys (in ascending order) and values.
+ * <p>
+ * Its purpose is to hand already-sorted data to {@link TreeMap#putAll} or the sorted-map constructors
+ * of {@link TreeMap} and {@link java.util.concurrent.ConcurrentSkipListMap}, which build the map in
+ * linear time instead of inserting the entries one by one.
+ */
+final class SortedArrayMap extends AbstractMap<String, String> implements SortedMap<String, String> {
+    private final String[] keys;
+    private final String[] values;
+    private final int from;
+    private final int to;
+
+    /**
+     * @param keys   keys in strictly ascending order
+     * @param values values for the keys
+     * @param count  the number of entries used from the start of the arrays
+     */
+    SortedArrayMap(String[] keys, String[] values, int count) {
+        this(keys, values, 0, count);
+    }
+
+    private SortedArrayMap(String[] keys, String[] values, int from, int to) {
+        this.keys = keys;
+        this.values = values;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return null; //natural ordering
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int next = from;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < to;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (next >= to) throw new NoSuchElementException();
+                        Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<>(keys[next], values[next]);
+                        next++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = Arrays.binarySearch(keys, from, to, key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return Arrays.binarySearch(keys, from, to, key) >= 0;
+    }
+
+    @Override
+    public String firstKey() {
+        if (from == to) throw new NoSuchElementException();
+        return keys[from];
+    }
+
+    @Override
+    public String lastKey() {
+        if (from == to) throw new NoSuchElementException();
+        return keys[to - 1];
+    }
+
+    @Override
+    public SortedMap<String, String> subMap(String fromKey, String toKey) {
+        if (fromKey.compareTo(toKey) > 0) throw new IllegalArgumentException("fromKey > toKey");
+        return new SortedArrayMap(keys, values, position(fromKey), Math.max(position(fromKey), position(toKey)));
+    }
+
+    @Override
+    public SortedMap<String, String> headMap(String toKey) {
+        return new SortedArrayMap(keys, values, from, position(toKey));
+    }
+
+    @Override
+    public SortedMap<String, String> tailMap(String fromKey) {
+        return new SortedArrayMap(keys, values, position(fromKey), to);
+    }
+
+    /**
+     * @return the index of the first key that is not less than the given key.
+     */
+    private int position(String key) {
+        int index = Arrays.binarySearch(keys, from, to, key);
+        return index >= 0 ? index : -index - 1;
+    }
+}
@@ -0,0 +1,69 @@
+package dict;
+
+import java.io.File;
+
+/**
+ * A persistent dictionary that keeps within a fixed heap budget, however large it grows, by spilling its
+ * cold entries to disk.
+ * <p>
+ * The entries are stored in an {@link LsmDictionary}: writes go to its memtable, which is written out to a
+ * segment file whenever it outgrows {@link #MEMTABLE_SHARE} of the budget. The rest of the budget holds
+ * the hot entries, in a {@link CachingDictionary} that measures itself in bytes: a key that is looked up
+ * is faulted in from disk, and the least recently used ones are dropped when the cache is full. So the
+ * memory taken by the entries is {@link #getHeapBytes()}, at most {@link #getHeapBudget()}, besides the
+ * Bloom filter and sparse index of each segment, which take a few bytes per key.
+ * <p>
+ * Estimates count 2 bytes per character and a fixed overhead per entry, which is about what the strings
+ * and map nodes take on a 64-bit JVM. The dictionary files are those of {@link LsmDictionary}.
+ */
+public class SpillingDictionary extends CachingDictionary {
+    /**
+     * The part of the budget used by the memtable; the rest is used by the cache of hot entries.
+     */
+    static final double MEMTABLE_SHARE = 0.25;
+
+    private final LsmDictionary store;
+    private final long heapBudget;
+
+    /**
+     * @param dictFile  the manifest file; segment files are created next to it
+     * @param heapBytes the memory (estimated) the entries may take on the heap
+     */
+    public SpillingDictionary(File dictFile, long heapBytes) {
+        this(new LsmDictionary(dictFile, memtableBudget(heapBytes)), heapBytes);
+    }
+
+    private SpillingDictionary(LsmDictionary store, long heapBytes) {
+        super(store, Math.max(1, heapBytes - memtableBudget(heapBytes)), Budget.BYTES);
+        this.store = store;
+        this.heapBudget = heapBytes;
+    }
+
+    private static long memtableBudget(long heapBytes) {
+        if (heapBytes <= 0) {
+            throw new IllegalArgumentException("Heap budget must be positive.");
+        }
+        return Math.max(1, (long) (heapBytes * MEMTABLE_SHARE));
+    }
+
+    /**
+     * @return the budget the dictionary was created with, in bytes.
+     */
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    /**
+     * @return the estimated memory taken by the entries held on the heap: the memtable and the hot entries.
+     */
+    public long getHeapBytes() {
+        return store.getMemtableBytes() + getCachedWeight();
+    }
+
+    /**
+     * @return the number of segment files the entries were spilled to.
+     */
+    public int getSegmentCount() {
+        return store.getSegmentCount();
+    }
+}
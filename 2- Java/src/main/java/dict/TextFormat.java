@@ -0,0 +1,280 @@
+package dict;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads and writes the plain text dictionary format shared by the dictionaries in this package.
+ * <p>
+ * The file format has one keyword per line:
+ * <pre>word:def</pre>
+ * The key ends at the first ':', so definitions may contain further colons, and an empty
+ * definition is written as <pre>word:</pre>
+ * Lines without a ':' are ignored, and a key that appears twice keeps its last definition.
+ * Files are read and written in UTF-8, whatever the platform charset.
+ * <p>
+ * A file written here starts with a line
+ * <pre>#generation id [sorted]</pre>
+ * where id is a random number picked for every write (see {@link DictionaryFormat#generation}), and "sorted"
+ * tells that the entries follow in ascending key order (they were written from a naturally ordered
+ * {@link SortedMap}). Having no ':', the line is ignored by readers.
+ */
+final class TextFormat {
+    static final Charset CHARSET = StandardCharsets.UTF_8;
+    static final String GENERATION = "#generation";
+    static final String SORTED = "sorted";
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    private static final long MAX_CHUNK_SIZE = 64 << 20;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The buffer each thread reads its chunks into, kept for the next load.
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private TextFormat() {
+    }
+
+    /**
+     * Parse the file and put all of its entries into the map.
+     * <p>
+     * The file is split into byte ranges that end on a line break, and the ranges are parsed in parallel on
+     * the common fork-join pool. Each range is parsed into a sorted partial map, and the partial maps are
+     * merged into the result in file order, so a key that appears twice still ends up with its last
+     * definition. Small files are parsed as a single range in the calling thread.
+     *
+     * @param file the file to read
+     * @param map  the map that receives the entries
+     * @throws IOException
+     */
+    static void read(File file, Map<String, String> map) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<long[]> ranges = split(channel);
+            if (ranges.size() == 1) {
+                map.putAll(new ChunkParser(channel, ranges.get(0)).compute());
+                return;
+            }
+
+            List<ChunkParser> parsers = new ArrayList<>();
+            for (long[] range : ranges) {
+                ChunkParser parser = new ChunkParser(channel, range);
+                parser.fork(); //runs on the common pool
+                parsers.add(parser);
+            }
+            for (ChunkParser parser : parsers) {
+                map.putAll(parser.join());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Split the file into ranges of about {@link #chunkSize} bytes, each ending right after a '\n'
+     * (or at the end of the file).
+     *
+     * @return the ranges, as {start, end} pairs.
+     */
+    private static List<long[]> split(FileChannel channel) throws IOException {
+        long length = channel.size();
+        List<long[]> ranges = new ArrayList<>();
+        long chunkSize = chunkSize(length);
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long start = 0;
+        while (start < length) {
+            long end = start + chunkSize;
+            if (end >= length) {
+                end = length;
+            } else { //move the end past the next line break.
+                long position = end - 1;
+                end = length;
+                boolean found = false;
+                while (!found && position < length) {
+                    buffer.clear();
+                    int read = channel.read(buffer, position);
+                    if (read < 0) break;
+                    for (int i = 0; i < read; ++i) {
+                        if (buffer.get(i) == '\n') {
+                            end = position + i + 1;
+                            found = true;
+                            break;
+                        }
+                    }
+                    position += read;
+                }
+            }
+            ranges.add(new long[]{start, end});
+            start = end;
+        }
+        return ranges;
+    }
+
+    private static long chunkSize(long length) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long chunkSize = length / (parallelism * 4L); //a few chunks per thread, to even out the load
+        return Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, chunkSize));
+    }
+
+    /**
+     * Reads and parses one range of the file into a sorted partial map.
+     * Lines end at '\n', '\r' or "\r\n", exactly as in {@link BufferedReader#readLine()}.
+     * <p>
+     * The range is read through the thread's direct buffer, and lines are split by scanning its bytes for line
+     * breaks and ':' (in UTF-8, these bytes are never part of another character). Only the key and the
+     * definition of each line are decoded, and no other object is made per line.
+     */
+    private static final class ChunkParser extends RecursiveTask<TreeMap<String, String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long start;
+        private final long end;
+        private transient byte[] slice = new byte[256]; // a key or definition being decoded
+
+        ChunkParser(FileChannel channel, long[] range) {
+            this.channel = channel;
+            this.start = range[0];
+            this.end = range[1];
+        }
+
+        @Override
+        protected TreeMap<String, String> compute() {
+            TreeMap<String, String> entries = new TreeMap<>();
+            ByteBuffer buffer = BUFFERS.get();
+            buffer.clear();
+            long next = start; // the position in the file of the next byte to read
+            boolean lineFeedBreak = false; // a '\n' at the start of the buffer ends the line before it ("\r\n")
+            try {
+                while (true) {
+                    while (buffer.hasRemaining() && next < end) {
+                        buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + end - next));
+                        int read = channel.read(buffer, next);
+                        if (read < 0) throw new EOFException("File shrank while it was being read");
+                        next += read;
+                    }
+                    buffer.flip();
+                    boolean last = next == end;
+
+                    int limit = buffer.limit();
+                    int lineStart = lineFeedBreak && limit > 0 && buffer.get(0) == '\n' ? 1 : 0;
+                    lineFeedBreak = false;
+                    int colon = -1; // the first ':' in the line
+                    for (int i = lineStart; i < limit; ++i) {
+                        byte b = buffer.get(i);
+                        if (b == ':') {
+                            if (colon < 0) colon = i;
+                        } else if (b == '\n' || b == '\r') {
+                            if (colon >= 0) entries.put(decode(buffer, lineStart, colon), decode(buffer, colon + 1, i));
+                            if (b == '\r') {
+                                if (i + 1 < limit) {
+                                    if (buffer.get(i + 1) == '\n') i++; //"\r\n" is a single line break
+                                } else {
+                                    lineFeedBreak = true; //the '\n' may be in the next read
+                                }
+                            }
+                            lineStart = i + 1;
+                            colon = -1;
+                        }
+                    }
+
+                    if (last) {
+                        if (colon >= 0) entries.put(decode(buffer, lineStart, colon), decode(buffer, colon + 1, limit));
+                        return entries;
+                    }
+                    buffer.position(lineStart);
+                    if (lineStart == 0 && limit == buffer.capacity()) { //a line longer than the buffer
+                        ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                        larger.put(buffer);
+                        buffer = larger;
+                    } else {
+                        buffer.compact(); //keep the start of the last line
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @return the UTF-8 bytes of the buffer between the indices, as a string.
+         */
+        private String decode(ByteBuffer buffer, int from, int to) {
+            int length = to - from;
+            if (length > slice.length) {
+                slice = new byte[Math.max(length, slice.length * 2)];
+            }
+            buffer.get(from, slice, 0, length);
+            return new String(slice, 0, length, CHARSET);
+        }
+    }
+
+    /**
+     * Write all the entries of the map to the file, replacing its contents atomically (see {@link AtomicFile}).
+     * Entries are written in the map's iteration order.
+     *
+     * @param file the file to write
+     * @param map  the entries to write
+     * @throws IOException
+     */
+    static void write(File file, Map<String, String> map) throws IOException {
+        AtomicFile.write(file, out -> {
+            BufferedWriter write = new BufferedWriter(new OutputStreamWriter(out, CHARSET));
+            boolean sorted = map instanceof SortedMap && ((SortedMap<String, String>) map).comparator() == null;
+            write.write(GENERATION + " " + DictionaryFormat.newGeneration() + (sorted ? " " + SORTED : ""));
+            write.newLine();
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                write.write(entry.getKey());
+                write.write(':');
+                write.write(entry.getValue());
+                write.newLine();
+            }
+            write.flush();
+        });
+    }
+
+    /**
+     * @return the generation in the first line of the file, or 0 if it has none.
+     */
+    static long generation(File file) throws IOException {
+        String[] header = readHeader(file);
+        if (header == null) return 0;
+        try {
+            return Long.parseLong(header[1]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return whether the first line of the file tells that its entries are in ascending key order.
+     */
+    static boolean isSorted(File file) throws IOException {
+        String[] header = readHeader(file);
+        return header != null && header.length > 2 && header[2].equals(SORTED);
+    }
+
+    /**
+     * @return the fields of the first line of the file if it is a generation line, otherwise null.
+     */
+    private static String[] readHeader(File file) throws IOException {
+        byte[] head = new byte[GENERATION.length() + 29]; //up to 19 digits, " sorted", spaces and a line break
+        String line = new String(head, 0, DictionaryFormat.readHead(file, head), CHARSET);
+        int end = 0;
+        while (end < line.length() && line.charAt(end) != '\n' && line.charAt(end) != '\r') {
+            end++;
+        }
+        String[] fields = line.substring(0, end).split(" ");
+        return fields.length > 1 && fields[0].equals(GENERATION) ? fields : null;
+    }
+}
@@ -0,0 +1,70 @@
+package dict;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded table of canonical string instances, so that equal definitions can share one instance.
+ * <p>
+ * The table keeps the most recently used strings; once it is full, the least recently used one is
+ * dropped to make room, so frequent strings stay in it while one-off strings pass through.
+ */
+final class ValueInterner {
+    /**
+     * Estimated bytes taken by a string besides its characters (the String object and its array header).
+     */
+    static final int STRING_OVERHEAD = 40;
+
+    private final Map<String, String> table;
+    private long bytesSaved;
+
+    /**
+     * @param capacity the maximal number of strings in the table
+     */
+    ValueInterner(int capacity) {
+        this.table = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the canonical instance equal to the string, which is the string itself if there was none.
+     */
+    String intern(String value) {
+        String canonical = table.putIfAbsent(value, value);
+        if (canonical == null) return value;
+        if (canonical != value) bytesSaved += size(value); //this instance can now be collected
+        return canonical;
+    }
+
+    /**
+     * @return the estimated number of bytes taken by the duplicate instances that were replaced.
+     */
+    long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * Empty the table and reset the count of saved bytes.
+     */
+    void reset() {
+        table.clear();
+        bytesSaved = 0;
+    }
+
+    /**
+     * The estimated heap size of a string: one byte per character if they are all Latin-1 (compact strings),
+     * and two otherwise.
+     */
+    private static long size(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) > 0xFF) return STRING_OVERHEAD + 2L * s.length();
+        }
+        return STRING_OVERHEAD + s.length();
+    }
+}
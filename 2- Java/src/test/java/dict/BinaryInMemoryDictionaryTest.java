@@ -0,0 +1,47 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class BinaryInMemoryDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new InMemoryDictionary(dictFile, DictionaryFormat.BINARY);
+	}
+
+	/**
+	 * Check that a text file is still read, and is converted to the binary format on close.
+	 */
+	@Test
+	public void convertTextFileTest() throws Exception {
+		try (FileWriter write = new FileWriter(dictFile)) {
+			write.write("word:def\nempty:\ncolons:a:b\n");
+		}
+		assertEquals(DictionaryFormat.TEXT, DictionaryFormat.of(dictFile));
+
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile, DictionaryFormat.BINARY);
+		dict.open();
+		assertEquals(3, dict.size());
+		assertEquals("a:b", dict.get("colons"));
+		dict.close();
+		assertEquals(DictionaryFormat.BINARY, DictionaryFormat.of(dictFile));
+
+		// Binary files can hold strings the text format can't.
+		dict.open();
+		assertEquals("", dict.get("empty"));
+		dict.put("key:with\ncolon", "line\nbreak\u00e9\ud83d\ude00");
+		dict.close();
+
+		dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		assertEquals(4, dict.size());
+		assertEquals("line\nbreak\u00e9\ud83d\ude00", dict.get("key:with\ncolon"));
+		dictFile.delete();
+	}
+}
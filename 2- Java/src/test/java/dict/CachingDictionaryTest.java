@@ -0,0 +1,88 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CachingDictionaryTest extends PersistentDictionaryTest {
+	/**
+	 * A small cache, so that the tests evict.
+	 */
+	static final int CACHED_KEYS = 64;
+
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new CachingDictionary(new MappedDictionary(dictFile), CACHED_KEYS);
+	}
+
+	/**
+	 * Keys that were looked up twice must survive a scan over many keys that are looked up once.
+	 */
+	@Test
+	public void scanResistanceTest() throws Exception {
+		dictFile.delete();
+		CachingDictionary dict = new CachingDictionary(new MappedDictionary(dictFile), CACHED_KEYS);
+		dict.open();
+		for (int i = 0; i < 1000; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		dict.close();
+		dict.open();
+
+		for (int round = 0; round < 2; ++round) {
+			for (int i = 0; i < 10; ++i) {
+				assertEquals("def" + i, dict.get("word" + i));
+			}
+		}
+		assertEquals(10, dict.getMisses());
+		assertEquals(10, dict.getHits());
+
+		for (int i = 100; i < 1000; ++i) {
+			assertEquals("def" + i, dict.get("word" + i));
+		}
+		assertTrue("Scan did not evict", dict.getEvictions() > 0);
+		assertTrue(dict.getCachedCount() <= CACHED_KEYS);
+
+		long hits = dict.getHits();
+		for (int i = 0; i < 10; ++i) {
+			assertEquals("def" + i, dict.get("word" + i));
+		}
+		assertEquals("Hot keys were evicted by the scan", hits + 10, dict.getHits());
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Writes must replace cached definitions and cached misses.
+	 */
+	@Test
+	public void invalidationTest() throws Exception {
+		dictFile.delete();
+		CachingDictionary dict = new CachingDictionary(new MappedDictionary(dictFile), CACHED_KEYS);
+		dict.open();
+		dict.put("word", "def");
+		assertNull(dict.get("missing"));
+		assertEquals("def", dict.get("word"));
+		assertEquals("def", dict.get("word"));
+
+		dict.put("missing", "found");
+		assertEquals("found", dict.get("missing"));
+		dict.remove("word");
+		assertNull(dict.get("word"));
+		dict.put("word", "new def");
+		assertEquals("new def", dict.get("word"));
+
+		dict.close();
+		dict.open();
+		assertEquals("found", dict.get("missing"));
+		assertEquals("new def", dict.get("word"));
+		dict.close();
+		dictFile.delete();
+	}
+}
@@ -0,0 +1,47 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedInMemoryDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new InMemoryDictionary(dictFile, DictionaryFormat.COMPRESSED);
+	}
+
+	/**
+	 * Repetitive definitions must take much less space than in the text format, and be read back.
+	 */
+	@Test
+	public void compressionTest() throws Exception {
+		dictFile.delete();
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < 5000; ++i) {
+			dict.put("word" + i, "a definition that is much like the others, number " + (i % 100));
+		}
+		dict.close();
+		long textLength = dictFile.length();
+
+		dict = new InMemoryDictionary(dictFile, DictionaryFormat.COMPRESSED);
+		dict.open();
+		dict.close(); // converts the text file
+		assertEquals(DictionaryFormat.COMPRESSED, DictionaryFormat.of(dictFile));
+		assertTrue("Compressed file is " + dictFile.length() + " bytes, text was " + textLength,
+				dictFile.length() * 3 < textLength);
+
+		dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		assertEquals(5000, dict.size());
+		for (int i = 0; i < 5000; ++i) {
+			assertEquals("a definition that is much like the others, number " + (i % 100), dict.get("word" + i));
+		}
+		dictFile.delete();
+	}
+}
@@ -0,0 +1,254 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new ConcurrentDictionary(dictFile);
+	}
+
+	/**
+	 * Several writers and readers use the dictionary while it is being flushed.
+	 */
+	@Test
+	public void concurrentAccessTest() throws Exception {
+		final int threads = 4;
+		final int words = 2000;
+
+		dictFile.delete();
+		final PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; ++t) {
+			final int id = t;
+			workers.add(new Thread(() -> {
+				for (int i = 0; i < words; ++i) {
+					dict.put("word" + id + "-" + i, "def" + i);
+					if (i % 2 == 1) {
+						dict.remove("word" + id + "-" + (i - 1));
+					}
+					dict.get("word" + ((id + 1) % threads) + "-" + i);
+				}
+			}));
+		}
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (int i = 0; i < 5; ++i) {
+			dict.close(); // flushes while the writers are running
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertEquals(threads * words / 2, dict.size());
+		dict.close();
+
+		PersistentDictionary reopened = getDictionary(dictFile);
+		reopened.open();
+		assertEquals(threads * words / 2, reopened.size());
+		for (int t = 0; t < threads; ++t) {
+			for (int i = 1; i < words; i += 2) {
+				assertEquals("def" + i, reopened.get("word" + t + "-" + i));
+			}
+		}
+		dictFile.delete();
+	}
+
+	/**
+	 * Flushes from many threads at once must all be durable, and are committed together.
+	 */
+	@Test
+	public void groupCommitTest() throws Exception {
+		long commits = flushFromManyThreads(new ConcurrentDictionary(dictFile, 0, 0, true));
+		assertTrue("flushes were not coalesced: " + commits + " commits for " + FLUSH_REQUESTS + " requests",
+				commits < FLUSH_REQUESTS);
+	}
+
+	/**
+	 * Without group commit, flushes from many threads at once are durable too, and each one commits.
+	 */
+	@Test
+	public void noGroupCommitTest() throws Exception {
+		assertEquals(FLUSH_REQUESTS, flushFromManyThreads(new ConcurrentDictionary(dictFile, 0, 0, false)));
+	}
+
+	private static final int FLUSH_THREADS = 8;
+	private static final int FLUSH_WORDS = 200; // per thread, with a flush after every 50
+	private static final int FLUSH_REQUESTS = FLUSH_THREADS * FLUSH_WORDS / 50;
+
+	/**
+	 * Have several threads put keys and flush at the same time, in rounds, and check that everything is on disk.
+	 *
+	 * @return the number of flushes that committed a snapshot
+	 */
+	private long flushFromManyThreads(final ConcurrentDictionary dict) throws Exception {
+		dictFile.delete();
+		dict.open();
+
+		final CyclicBarrier together = new CyclicBarrier(FLUSH_THREADS);
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < FLUSH_THREADS; ++t) {
+			final int id = t;
+			workers.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < FLUSH_WORDS; ++i) {
+						dict.put("word" + id + "-" + i, "def" + i);
+						if (i % 50 == 49) {
+							together.await(); //every thread flushes at once
+							dict.flush();
+						}
+					}
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			}));
+		}
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertEquals(Collections.emptyList(), failures);
+		long commits = dict.getCommits();
+
+		// Every thread flushed after its last put, so everything is on disk without a close.
+		PersistentDictionary reopened = getDictionary(dictFile);
+		reopened.open();
+		assertEquals(FLUSH_THREADS * FLUSH_WORDS, reopened.size());
+		dictFile.delete();
+		return commits;
+	}
+
+	/**
+	 * Changes reach the disk through background checkpoints, without a flush or close.
+	 */
+	@Test
+	public void checkpointTest() throws Exception {
+		dictFile.delete();
+		ConcurrentDictionary dict = new ConcurrentDictionary(dictFile, 10, 100);
+		dict.open();
+		for (int i = 0; i < 150; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		dict.remove("word0");
+
+		PersistentDictionary reopened = getDictionary(dictFile);
+		long deadline = System.currentTimeMillis() + 10000;
+		do {
+			Thread.sleep(10);
+			reopened.open();
+		} while (reopened.size() != 149 && System.currentTimeMillis() < deadline);
+		assertEquals(149, reopened.size());
+		assertEquals("def149", reopened.get("word149"));
+
+		dict.put("word0", "new def");
+		dict.close();
+		reopened.open();
+		assertEquals("new def", reopened.get("word0"));
+		dictFile.delete();
+		dict.getDeltaFile().delete();
+	}
+
+	/**
+	 * An asynchronous flush only appends the changes to the delta, and is durable once its future completes.
+	 */
+	@Test
+	public void flushAsyncTest() throws Exception {
+		dictFile.delete();
+		ConcurrentDictionary dict = new ConcurrentDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < 2000; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		dict.flushAsync().get();
+		long length = dictFile.length();
+		assertTrue(length > 0);
+
+		dict.put("word0", "new def");
+		dict.remove("word1");
+		dict.flushAsync().get();
+		assertEquals("The dictionary file was rewritten", length, dictFile.length());
+		assertTrue(dict.getDeltaFile().exists());
+
+		PersistentDictionary reopened = getDictionary(dictFile);
+		reopened.open();
+		assertEquals(1999, reopened.size());
+		assertEquals("new def", reopened.get("word0"));
+		dict.close();
+		dictFile.delete();
+		dict.getDeltaFile().delete();
+	}
+
+	/**
+	 * A snapshot keeps seeing the dictionary as it was, while writers change it.
+	 */
+	@Test
+	public void snapshotTest() throws Exception {
+		dictFile.delete();
+		final ConcurrentDictionary dict = new ConcurrentDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < 1000; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		TreeMap<String, String> expected = new TreeMap<>();
+		for (Iterator<Map.Entry<String, String>> scan = dict.range(null, null); scan.hasNext(); ) {
+			Map.Entry<String, String> entry = scan.next();
+			expected.put(entry.getKey(), entry.getValue());
+		}
+
+		final AtomicBoolean stop = new AtomicBoolean();
+		Thread writer = new Thread(() -> {
+			int round = 0;
+			do { // at least one round, however soon the snapshot is done
+				for (int i = 0; i < 1000; ++i) {
+					dict.put("word" + i, "def" + i + "-" + round);
+					dict.remove("word" + (i + 1));
+					dict.put("new" + i, "def");
+				}
+				round++;
+			} while (!stop.get());
+		});
+		try (ConcurrentDictionary.Snapshot snapshot = dict.snapshot()) {
+			writer.start();
+			for (int i = 0; i < 5; ++i) {
+				assertEquals(expected, new TreeMap<>(snapshot));
+				testScan("Snapshot range", expected.subMap("word1", "word2"), snapshot.range("word1", "word2"));
+			}
+			assertEquals(1000, snapshot.size());
+			assertEquals("def999", snapshot.get("word999"));
+			assertNull(snapshot.get("new0"));
+		} finally {
+			stop.set(true);
+			writer.join();
+		}
+
+		try (ConcurrentDictionary.Snapshot snapshot = dict.snapshot()) {
+			dict.clear();
+			assertEquals(0, dict.size());
+			assertEquals("def", snapshot.get("new0"));
+			assertNull(dict.get("new0"));
+		}
+		dict.close();
+		dictFile.delete();
+	}
+}
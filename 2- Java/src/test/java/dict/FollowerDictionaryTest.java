@@ -0,0 +1,107 @@
+package dict;
+
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class FollowerDictionaryTest {
+	File dictFile;
+	File feedFile;
+
+	public FollowerDictionaryTest() throws Exception {
+		dictFile = File.createTempFile("DictTest", ".tmp");
+		dictFile.delete();
+		feedFile = new File(dictFile.getPath() + ".feed");
+	}
+
+	@After
+	public void cleanup() {
+		dictFile.delete();
+		feedFile.delete();
+		new File(feedFile.getPath() + ".applied").delete();
+		new File(dictFile.getPath() + ".delta").delete();
+	}
+
+	/**
+	 * A missing feed is an empty dictionary, and a follower can't be changed.
+	 */
+	@Test
+	public void readOnlyTest() throws Exception {
+		FollowerDictionary follower = new FollowerDictionary(feedFile);
+		follower.open();
+		assertEquals(0, follower.size());
+		assertEquals(-1, follower.getAppliedSequence());
+		assertEquals(0, follower.poll());
+		try {
+			follower.put("word", "def");
+			fail("A follower was changed");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		follower.close();
+	}
+
+	/**
+	 * A batch cut short is ignored, and one that is still being written is picked up once complete.
+	 */
+	@Test
+	public void tornBatchTest() throws Exception {
+		PublishingDictionary dict = new PublishingDictionary(new InMemoryDictionary(dictFile), feedFile);
+		dict.open();
+		dict.put("word", "def");
+		dict.close();
+		FollowerDictionary follower = new FollowerDictionary(feedFile);
+		follower.open();
+		assertEquals(1, follower.size());
+
+		try (FileWriter write = new FileWriter(feedFile, true)) {
+			write.write("@2 0\n+lost:torn\n+half");
+		}
+		assertEquals(0, follower.poll());
+		assertEquals(0, follower.getLagMillis()); // not published yet
+		assertFalse(follower.containsKey("lost"));
+
+		dict.open();
+		dict.put("next", "batch");
+		dict.close();
+		assertEquals(2, dict.getPublishedSequence());
+		assertEquals(1, follower.poll());
+		assertEquals("batch", follower.get("next"));
+		assertFalse(follower.containsKey("lost"));
+		assertEquals(0, follower.getLagMillis());
+	}
+
+	/**
+	 * A follower reloads from the snapshot of a feed that does not follow on from the one it read.
+	 */
+	@Test
+	public void newFeedTest() throws Exception {
+		PublishingDictionary dict = new PublishingDictionary(new InMemoryDictionary(dictFile), feedFile);
+		for (int i = 0; i < 3; ++i) {
+			dict.open();
+			dict.put("word" + i, "def" + i);
+			dict.close();
+		}
+		FollowerDictionary follower = new FollowerDictionary(feedFile);
+		follower.open();
+		assertEquals(3, follower.getAppliedSequence());
+
+		feedFile.delete();
+		dict.open(); //starts a new feed from the dictionary, at sequence 0
+		dict.remove("word0");
+		dict.close();
+		assertEquals(1, dict.getPublishedSequence());
+		assertEquals(2, follower.poll());
+		assertEquals(1, follower.getAppliedSequence());
+		assertEquals(2, follower.size());
+		assertFalse(follower.containsKey("word0"));
+		assertEquals("def2", follower.get("word2"));
+	}
+}
@@ -0,0 +1,142 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A frozen dictionary can't be written to, so it is not tested as a {@link PersistentDictionaryTest}.
+ */
+public class FrozenDictionaryTest {
+	File dictFile;
+
+	public FrozenDictionaryTest() throws IOException {
+		dictFile = File.createTempFile("DictTest", ".tmp");
+	}
+
+	/**
+	 * Keys with characters whose UTF-8 order differs from their UTF-16 order (surrogate pairs and
+	 * characters above them), so that the search must compare the way {@link String#compareTo} does.
+	 */
+	String[] words = { "", "a", "ab", "b", "\uE000", "\uD83D\uDE00", "\uD83D\uDE00x", "\u00E9", "\uFFFF", "z:1" };
+
+	@Test
+	public void freezeTest() throws Exception {
+		dictFile.delete();
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile, DictionaryFormat.BINARY);
+		dict.open();
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		for (int i = 0; i < words.length; ++i) {
+			dict.put(words[i], "def" + i);
+			expected.put(words[i], "def" + i);
+		}
+		for (int i = 0; i < 1000; ++i) {
+			dict.put("word" + i, i % 2 == 0 ? "" : "def" + i);
+			expected.put("word" + i, i % 2 == 0 ? "" : "def" + i);
+		}
+
+		FrozenDictionary frozen = dict.freeze();
+		assertEquals(expected.size(), frozen.size());
+		for (Map.Entry<String, String> entry : expected.entrySet()) {
+			assertEquals(entry.getKey(), entry.getValue(), frozen.get(entry.getKey()));
+		}
+		assertNull(frozen.get("word"));
+		assertNull(frozen.get("\uD83D"));
+		assertFalse(frozen.containsKey("zz"));
+		assertTrue(frozen.containsKey(""));
+
+		// Scans are in the same order as the map's.
+		Iterator<Map.Entry<String, String>> scan = frozen.range(null, null);
+		for (Map.Entry<String, String> entry : expected.entrySet()) {
+			assertEquals(entry, scan.next());
+		}
+		assertFalse(scan.hasNext());
+		scan = frozen.prefixScan("word99");
+		for (Map.Entry<String, String> entry : expected.subMap("word99", "word9:").entrySet()) {
+			assertEquals(entry, scan.next());
+		}
+		assertFalse(scan.hasNext());
+
+		assertEquals(expected, frozen.thaw());
+		dictFile.delete();
+	}
+
+	@Test
+	public void openTest() throws Exception {
+		dictFile.delete();
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < 2000; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		dict.close();
+		dict.open();
+		dict.remove("word1");
+		dict.put("word2", "changed");
+		dict.close(); // written as a delta
+
+		FrozenDictionary frozen = new FrozenDictionary(dictFile);
+		frozen.open();
+		assertEquals(1999, frozen.size());
+		assertNull(frozen.get("word1"));
+		assertEquals("changed", frozen.get("word2"));
+		assertEquals("def1999", frozen.get("word1999"));
+		assertTrue("Packed dictionary takes " + frozen.getPackedBytes() + " bytes",
+				frozen.getPackedBytes() < 2000 * 25);
+		frozen.close();
+		dictFile.delete();
+		new File(dictFile.getPath() + ".delta").delete();
+	}
+
+	/**
+	 * A delta that doesn't belong to the dictionary file is ignored, and left for its writer to delete.
+	 */
+	@Test
+	public void staleDeltaTest() throws Exception {
+		File delta = new File(dictFile.getPath() + ".delta");
+		try (FileWriter write = new FileWriter(dictFile)) {
+			write.write("word:one\n");
+		}
+		try (FileWriter write = new FileWriter(delta)) {
+			write.write("#1 2\n+word:two\n.\n");
+		}
+		FrozenDictionary frozen = new FrozenDictionary(dictFile);
+		frozen.open();
+		assertEquals("one", frozen.get("word"));
+		assertTrue("Stale delta was deleted", delta.exists());
+		dictFile.delete();
+		delta.delete();
+	}
+
+	@Test
+	public void readOnlyTest() throws Exception {
+		FrozenDictionary frozen = FrozenDictionary.of(dictFile, new TreeMap<String, String>());
+		try {
+			frozen.put("word", "def");
+			fail("Changed a frozen dictionary");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			frozen.remove("word");
+			fail("Changed a frozen dictionary");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		assertEquals(0, frozen.size());
+		assertFalse(frozen.range(null, null).hasNext());
+		dictFile.delete();
+	}
+}
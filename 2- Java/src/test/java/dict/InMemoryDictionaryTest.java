@@ -1,12 +1,181 @@
 package dict;
 
 
+import org.junit.Test;
+
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class InMemoryDictionaryTest extends PersistentDictionaryTest {
 	@Override
     PersistentDictionary getDictionary(File file) throws IOException {
 		return new InMemoryDictionary(dictFile);
 	}
+
+	/**
+	 * Check that closing an unchanged dictionary doesn't touch the disk, and that
+	 * a small change only writes a delta.
+	 */
+	@Test
+	public void incrementalFlushTest() throws Exception {
+		dictFile.delete();
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		fillMap(dict, testWords, testDefs);
+		dict.close();
+
+		long length = dictFile.length();
+		long modified = dictFile.lastModified();
+
+		dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		dict.close();
+		assertEquals("Unchanged dictionary was rewritten", modified, dictFile.lastModified());
+		assertFalse("Unchanged dictionary wrote a delta", dict.getDeltaFile().exists());
+
+		dict.open();
+		dict.put("Second", "changed");
+		dict.remove("CAB");
+		dict.close();
+		assertEquals("Small change rewrote the dictionary", length, dictFile.length());
+		assertEquals("Small change rewrote the dictionary", modified, dictFile.lastModified());
+		assertTrue("Small change wasn't written to the delta", dict.getDeltaFile().exists());
+
+		dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		assertEquals("changed", dict.get("Second"));
+		assertFalse(dict.containsKey("CAB"));
+		assertEquals(testWords.length - 1, dict.size());
+
+		dict.clear(); // a clear merges the delta into the dictionary file
+		dict.put("only", "word");
+		dict.close();
+		assertFalse("Delta wasn't merged", dict.getDeltaFile().exists());
+
+		dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		assertEquals(1, dict.size());
+		assertEquals("word", dict.get("only"));
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that a batch put into a loaded dictionary only logs the definitions it changed, and that one
+	 * built into an empty dictionary logs all of them.
+	 */
+	@Test
+	public void putAllDeltaTest() throws Exception {
+		dictFile.delete();
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		TreeMap<String, String> sorted = new TreeMap<>();
+		for (int i = 0; i < 2000; ++i) {
+			sorted.put("word" + i, "def" + i);
+		}
+		dict.putAll(sorted);
+		dict.close();
+		dict.open();
+		Map<String, String> batch = new HashMap<>();
+		batch.put("word1", "def1"); // unchanged
+		batch.put("word2", "changed");
+		batch.put("new", "word");
+		dict.putAll(batch);
+		dict.close();
+		assertEquals(Arrays.asList("+new:word", "+word2:changed", "."), deltaRecords(dict));
+
+		dict.clear();
+		dict.close(); // merged
+		dict.open();
+		dict.putAll(new TreeMap<>(batch));
+		dict.close();
+		assertEquals(Arrays.asList("+new:word", "+word1:def1", "+word2:changed", "."), deltaRecords(dict));
+		dictFile.delete();
+		dict.getDeltaFile().delete();
+	}
+
+	/**
+	 * @return the lines of the delta after its header, with the records of each batch sorted.
+	 */
+	private static List<String> deltaRecords(InMemoryDictionary dict) throws IOException {
+		List<String> lines = Files.readAllLines(dict.getDeltaFile().toPath());
+		List<String> records = new ArrayList<>(lines.subList(1, lines.size()));
+		Collections.sort(records.subList(0, records.size() - 1));
+		return records;
+	}
+
+	/**
+	 * Check that equal definitions share an instance once loaded, and that the savings are reported.
+	 */
+	@Test
+	public void valueDeduplicationTest() throws Exception {
+		try (FileWriter write = new FileWriter(dictFile)) {
+			for (int i = 0; i < 1000; ++i) {
+				write.write("word" + i + ":" + (i % 2 == 0 ? "" : "see word" + (i % 10)) + "\n");
+			}
+		}
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile, DictionaryFormat.TEXT, 16);
+		dict.open();
+		assertEquals(1000, dict.size());
+		assertSame(dict.get("word0"), dict.get("word2"));
+		assertSame(dict.get("word1"), dict.get("word11"));
+		assertEquals("see word1", dict.get("word11"));
+		long saved = dict.getBytesSaved();
+		assertTrue("Saved only " + saved + " bytes", saved >= 490 * ValueInterner.STRING_OVERHEAD); // empty definitions may already be shared
+
+		dict.put("new word", new String("see word3"));
+		assertSame(dict.get("word3"), dict.get("new word"));
+		assertTrue(dict.getBytesSaved() > saved);
+		dict.close();
+
+		assertEquals(0, new InMemoryDictionary(dictFile).getBytesSaved());
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that a delta left behind by a crash during a merge is discarded, even when the merged dictionary
+	 * file has the length and modification time of the one the delta was written against.
+	 */
+	@Test
+	public void staleDeltaTest() throws Exception {
+		dictFile.delete();
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		dict.put("word", "one");
+		dict.close();
+		long modified = dictFile.lastModified();
+
+		dict.open();
+		dict.put("word", "two");
+		dict.close(); // a small change goes to the delta
+		File stale = new File(dictFile.getPath() + ".stale");
+		Files.copy(dict.getDeltaFile().toPath(), stale.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		dict.open();
+		dict.clear(); // merged
+		dict.put("word", "six");
+		dict.close();
+		Files.move(stale.toPath(), dict.getDeltaFile().toPath()); // as if the merge died before deleting the delta
+		dictFile.setLastModified(modified);
+
+		dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		assertEquals("six", dict.get("word"));
+		assertFalse("Stale delta wasn't discarded", dict.getDeltaFile().exists());
+		dictFile.delete();
+	}
 }
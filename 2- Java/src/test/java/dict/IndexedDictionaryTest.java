@@ -0,0 +1,96 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new IndexedDictionary(new InMemoryDictionary(dictFile), indexFile());
+	}
+
+	File indexFile() {
+		return new File(dictFile.getPath() + ".idx");
+	}
+
+	static TreeSet<String> words(String... words) {
+		return new TreeSet<>(Arrays.asList(words));
+	}
+
+	/**
+	 * AND and OR queries follow the changes, and survive a reopen.
+	 */
+	@Test
+	public void searchTest() throws Exception {
+		dictFile.delete();
+		IndexedDictionary dict = new IndexedDictionary(new InMemoryDictionary(dictFile), indexFile());
+		dict.open();
+		dict.put("apple", "A round Fruit, red or green.");
+		dict.put("banana", "A long yellow fruit.");
+		dict.put("lime", "A small green citrus fruit.");
+		dict.put("grass", "Green plants; fruit-less.");
+
+		assertEquals(words("apple", "banana", "grass", "lime"), dict.searchAll("fruit"));
+		assertEquals(words("apple", "grass", "lime"), dict.searchAll("GREEN", "fruit"));
+		assertEquals(words("apple", "lime"), dict.searchAll("green fruit", "a"));
+		assertEquals(words("banana", "lime"), dict.searchAny("yellow", "citrus"));
+		assertEquals(words(), dict.searchAll("green", "missing"));
+		assertEquals(words(), dict.searchAny());
+
+		dict.put("lime", "A small sour citrus.");
+		dict.remove("grass");
+		assertEquals(words("apple"), dict.searchAll("green"));
+		assertEquals(words("lime"), dict.searchAny("sour"));
+		dict.close();
+		assertTrue(indexFile().exists());
+
+		dict.open();
+		assertEquals(words("apple", "banana"), dict.searchAll("fruit"));
+		assertEquals(words("lime"), dict.searchAll("citrus"));
+		dict.put("kiwi", "A green fruit.");
+		assertFalse("The index file was kept after a change", indexFile().exists());
+
+		// A dictionary that was not closed has no index file, and is indexed again.
+		IndexedDictionary reopened = new IndexedDictionary(new InMemoryDictionary(dictFile), indexFile());
+		reopened.open();
+		assertEquals(words("apple", "banana"), reopened.searchAll("fruit"));
+		reopened.close();
+		dictFile.delete();
+		indexFile().delete();
+	}
+
+	/**
+	 * Many rewrites retire many ids, which are then compacted away.
+	 */
+	@Test
+	public void rewriteTest() throws Exception {
+		dictFile.delete();
+		IndexedDictionary dict = new IndexedDictionary(new InMemoryDictionary(dictFile), indexFile());
+		dict.open();
+		for (int round = 0; round < 5; ++round) {
+			for (int i = 0; i < 1000; ++i) {
+				dict.put("word" + i, "round" + round + " number" + i + (i % 2 == 0 ? " even" : " odd"));
+			}
+		}
+		assertEquals(500, dict.searchAll("round4", "even").size());
+		assertEquals(words("word7"), dict.searchAll("number7"));
+		assertEquals(words(), dict.searchAny("round3"));
+		dict.close();
+
+		dict.open();
+		assertEquals(500, dict.searchAll("odd").size());
+		assertEquals(words("word7", "word8"), dict.searchAny("number7", "number8"));
+		dict.close();
+		dictFile.delete();
+		indexFile().delete();
+	}
+}
@@ -0,0 +1,130 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LazyInMemoryDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new InMemoryDictionary(dictFile, DictionaryFormat.TEXT, 0, true);
+	}
+
+	/**
+	 * Check that lookups and changes made while the file is loading see the file, the delta and each other,
+	 * and that the dictionary written on close holds all of them.
+	 */
+	@Test
+	public void lazyOpenTest() throws Exception {
+		int count = 200_000;
+		try (BufferedWriter write = new BufferedWriter(new FileWriter(dictFile))) {
+			for (int i = 0; i < count; ++i) {
+				write.write(String.format("word%06d:def%d%n", i, i));
+			}
+		}
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		dict.remove("word000010");
+		dict.put("word000011", "from the delta");
+		dict.close();
+		assertTrue(new File(dictFile.getPath() + ".delta").exists());
+
+		dict = new InMemoryDictionary(dictFile, DictionaryFormat.TEXT, 0, true);
+		dict.open();
+		assertEquals("def0", dict.get("word000000"));
+		assertNull(dict.get("word000010"));
+		assertEquals("from the delta", dict.get("word000011"));
+		assertEquals("def" + (count - 1), dict.get(String.format("word%06d", count - 1)));
+		assertFalse(dict.containsKey("word" + count));
+
+		dict.put("word000020", "changed");
+		dict.remove("word000021");
+		dict.put("a new word", "added");
+		dict.awaitLoad();
+		assertEquals(count - 1, dict.size()); // two removed, one added
+		assertEquals("changed", dict.get("word000020"));
+		assertNull(dict.get("word000021"));
+		dict.close();
+
+		dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		assertEquals(count - 1, dict.size()); // two removed, one added
+		assertEquals("from the delta", dict.get("word000011"));
+		assertEquals("changed", dict.get("word000020"));
+		assertFalse(dict.containsKey("word000021"));
+		assertEquals("added", dict.get("a new word"));
+
+		// A file the loader can't read fails the methods that need it, and the dictionary can be opened again.
+		dict = new InMemoryDictionary(dictFile, DictionaryFormat.BINARY);
+		dict.open();
+		dict.close();
+		try (RandomAccessFile truncate = new RandomAccessFile(dictFile, "rw")) {
+			truncate.setLength(truncate.length() / 2);
+		}
+		dict = new InMemoryDictionary(dictFile, DictionaryFormat.BINARY, 0, true);
+		dict.open();
+		try {
+			dict.awaitLoad();
+			fail("Loaded a truncated file");
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			dict.get(String.format("word%06d", count - 1));
+			fail("Found a key past the end of a truncated file");
+		} catch (UncheckedIOException e) {
+			// expected
+		}
+		dictFile.delete();
+		dict.open();
+		assertEquals(0, dict.size());
+	}
+
+	/**
+	 * Check that a lazy open of a file that is not in key order, and spans many chunks of the reader, finds
+	 * the keys that come after larger ones.
+	 */
+	@Test
+	public void unsortedFileTest() throws Exception {
+		try (BufferedWriter write = new BufferedWriter(new FileWriter(dictFile))) {
+			for (int i = 0; i < 600_000; ++i) {
+				write.write(String.format("m%07d:a definition of the word m%07d%n", i, i));
+			}
+			for (int i = 0; i < 200_000; ++i) {
+				write.write(String.format("a%07d:a definition of the word a%07d%n", i, i));
+			}
+		}
+		assertTrue(dictFile.length() > 20 * 1024 * 1024);
+
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile, DictionaryFormat.TEXT, 0, true);
+		dict.open();
+		assertEquals("a definition of the word a0199999", dict.get("a0199999"));
+		assertTrue(dict.containsKey("a0000000"));
+		assertFalse(dict.containsKey("b"));
+		dict.awaitLoad();
+		assertEquals(800_000, dict.size());
+		dict.close();
+		assertFalse(TextFormat.isSorted(dictFile));
+
+		// Written from the sorted map, the file can be waited on key by key.
+		TextFormat.write(dictFile, dict);
+		assertTrue(TextFormat.isSorted(dictFile));
+		dict = new InMemoryDictionary(dictFile, DictionaryFormat.TEXT, 0, true);
+		dict.open();
+		assertEquals("a definition of the word m0599999", dict.get("m0599999"));
+		assertEquals("a definition of the word a0000000", dict.get("a0000000"));
+		dict.close();
+	}
+}
@@ -0,0 +1,81 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogStructuredDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new LogStructuredDictionary(dictFile);
+	}
+
+	/**
+	 * Check that a small change is appended to the log and leaves the snapshot alone.
+	 */
+	@Test
+	public void closeAppendsToLogTest() throws Exception {
+		dictFile.delete();
+		LogStructuredDictionary dict = new LogStructuredDictionary(dictFile);
+		dict.open();
+		fillMap(dict, testWords, testDefs);
+		dict.close();
+
+		long snapshotLength = dictFile.length();
+		assertFalse("No log expected after the first snapshot", dict.getLogFile().exists());
+
+		dict = new LogStructuredDictionary(dictFile);
+		dict.open();
+		dict.put("Second", "changed");
+		dict.remove("CAB");
+		dict.close();
+
+		assertEquals("Snapshot was rewritten", snapshotLength, dictFile.length());
+		assertTrue("Changes were not logged", dict.getLogFile().exists());
+
+		dict = new LogStructuredDictionary(dictFile);
+		dict.open();
+		assertEquals("changed", dict.get("Second"));
+		assertFalse(dict.containsKey("CAB"));
+		assertEquals(testWords.length - 1, dict.size());
+		dict.close();
+
+		dict.getLogFile().delete();
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that a long log is folded into a new snapshot.
+	 */
+	@Test
+	public void compactionTest() throws Exception {
+		dictFile.delete();
+		LogStructuredDictionary dict = new LogStructuredDictionary(dictFile);
+		dict.open();
+		dict.close();
+
+		int rounds = LogStructuredDictionary.MIN_COMPACTION_RECORDS / 100 + 1;
+		for (int i = 0; i < rounds; ++i) {
+			dict = new LogStructuredDictionary(dictFile);
+			dict.open();
+			for (int j = 0; j < 100; ++j) {
+				dict.put("word" + j, "def " + i);
+			}
+			dict.close();
+		}
+
+		dict = new LogStructuredDictionary(dictFile); //waits for the compaction to finish
+		dict.open();
+		assertFalse("Log was not compacted", dict.getLogFile().exists());
+		assertEquals(100, dict.size());
+		assertEquals("def " + (rounds - 1), dict.get("word7"));
+		dict.close();
+		dictFile.delete();
+	}
+}
@@ -0,0 +1,181 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LsmDictionaryTest extends PersistentDictionaryTest {
+	/**
+	 * A tiny memtable, so that the tests write many segments and compact them.
+	 */
+	static final long MEMTABLE_BYTES = 4096;
+
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new LsmDictionary(dictFile, MEMTABLE_BYTES);
+	}
+
+	/**
+	 * Write much more than fits in the memtable, with updates and removals spread over many segments.
+	 */
+	@Test
+	public void manySegmentsTest() throws Exception {
+		dictFile.delete();
+		LsmDictionary dict = new LsmDictionary(dictFile, MEMTABLE_BYTES);
+		dict.open();
+		for (int i = 0; i < 5000; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		for (int i = 0; i < 5000; i += 3) {
+			dict.remove("word" + i);
+		}
+		for (int i = 1; i < 5000; i += 3) {
+			dict.put("word" + i, "new def" + i);
+		}
+		assertTrue("Memtable was never flushed", dict.getSegmentCount() > 0);
+		dict.close();
+
+		dict = new LsmDictionary(dictFile, MEMTABLE_BYTES);
+		dict.open();
+		assertTrue("Segments were not compacted", dict.getSegmentCount() < 20); // there were over a hundred flushes
+		assertEquals(5000 - 1667, dict.size());
+		for (int i = 0; i < 5000; ++i) {
+			String expected = i % 3 == 0 ? null : i % 3 == 1 ? "new def" + i : "def" + i;
+			assertEquals("word" + i, expected, dict.get("word" + i));
+		}
+		assertNull(dict.get("missing"));
+		assertFalse(dict.containsKey("word0"));
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Compressed segments must answer lookups and survive compaction like plain ones.
+	 */
+	@Test
+	public void compressedSegmentsTest() throws Exception {
+		dictFile.delete();
+		LsmDictionary dict = new LsmDictionary(dictFile, MEMTABLE_BYTES, true);
+		dict.open();
+		for (int i = 0; i < 3000; ++i) {
+			dict.put("word" + i, "a definition that is much like the others, number " + (i % 10));
+		}
+		for (int i = 0; i < 3000; i += 2) {
+			dict.remove("word" + i);
+		}
+		dict.close();
+
+		dict = new LsmDictionary(dictFile, MEMTABLE_BYTES, true);
+		dict.open();
+		assertEquals(1500, dict.size());
+		for (int i = 0; i < 3000; ++i) {
+			String expected = i % 2 == 0 ? null : "a definition that is much like the others, number " + (i % 10);
+			assertEquals("word" + i, expected, dict.get("word" + i));
+		}
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Segments flushed after the last close must not survive a reopen.
+	 */
+	@Test
+	public void reopenDiscardsUnclosedSegmentsTest() throws Exception {
+		dictFile.delete();
+		LsmDictionary dict = new LsmDictionary(dictFile, MEMTABLE_BYTES);
+		dict.open();
+		dict.put("kept", "yes");
+		dict.close();
+
+		dict.open();
+		for (int i = 0; i < 1000; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		dict.remove("kept"); // the removal is flushed with the following puts
+		for (int i = 1000; i < 1100; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+
+		dict.open();
+		assertEquals(1, dict.size());
+		assertEquals("yes", dict.get("kept"));
+		assertNull(dict.get("word1"));
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * A batch is written without lookups; the entries are counted once the size is asked for, even after a reopen.
+	 */
+	@Test
+	public void blindBatchTest() throws Exception {
+		dictFile.delete();
+		LsmDictionary dict = new LsmDictionary(dictFile, MEMTABLE_BYTES);
+		dict.open();
+		for (int i = 0; i < 1000; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		TreeMap<String, String> batch = new TreeMap<>();
+		for (int i = 500; i < 2000; ++i) {
+			batch.put("word" + i, "new def" + i);
+		}
+		dict.putAll(batch);
+		dict.remove("word0");
+		dict.close();
+
+		dict = new LsmDictionary(dictFile, MEMTABLE_BYTES);
+		dict.open();
+		assertEquals(1999, dict.size());
+		dict.remove("word1");
+		dict.put("word2000", "def");
+		assertEquals(1999, dict.size());
+		assertEquals("new def1500", dict.get("word1500"));
+		dict.close();
+
+		dict.open();
+		assertEquals(1999, dict.size());
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * A compaction that fails must not lose the segments written since the last close.
+	 */
+	@Test
+	public void failedCompactionTest() throws Exception {
+		dictFile.delete();
+		LsmDictionary dict = new LsmDictionary(dictFile, MEMTABLE_BYTES);
+		dict.open();
+		File blocker = new File(dictFile.getPath() + "." + LsmDictionary.COMPACTION_TRIGGER + ".sst");
+		assertTrue(blocker.mkdir()); // the output of the first compaction can't be written
+		int count = 0;
+		while (dict.getSegmentCount() < LsmDictionary.COMPACTION_TRIGGER) {
+			dict.put("word" + count, "def" + count);
+			count++;
+		}
+		try {
+			dict.close();
+			fail("A failed compaction wasn't reported");
+		} catch (IOException e) {
+			// expected
+		}
+
+		dict = new LsmDictionary(dictFile, MEMTABLE_BYTES);
+		dict.open();
+		assertEquals(count, dict.size());
+		for (int i = 0; i < count; ++i) {
+			assertEquals("def" + i, dict.get("word" + i));
+		}
+		dict.close();
+		dictFile.delete();
+	}
+}
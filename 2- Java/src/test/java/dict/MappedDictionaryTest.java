@@ -0,0 +1,96 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MappedDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new MappedDictionary(dictFile);
+	}
+
+	/**
+	 * Check that open() refuses a file that doesn't start with a mapped dictionary header.
+	 */
+	@Test
+	public void invalidHeaderTest() throws Exception {
+		try (FileWriter write = new FileWriter(dictFile)) {
+			write.write("word:def\nanother word:another def\n");
+		}
+		PersistentDictionary dict = getDictionary(dictFile);
+		try {
+			dict.open();
+			fail("Opened a text dictionary as a mapped dictionary");
+		} catch (IOException e) {
+			// expected
+		}
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that a large table (many probes and collisions) can be reopened.
+	 */
+	@Test
+	public void largeTableTest() throws Exception {
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < 10000; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		assertEquals(10000, dict.size());
+		for (int i = 0; i < 10000; ++i) {
+			assertEquals("def" + i, dict.get("word" + i));
+		}
+		assertEquals(null, dict.get("word10000"));
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that a lookup in a table without an empty slot (only a corrupt file has one) ends.
+	 */
+	@Test(timeout = 10000)
+	public void fullTableTest() throws Exception {
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		dict.put("word", "def");
+		dict.close();
+
+		try (RandomAccessFile file = new RandomAccessFile(dictFile, "rw")) {
+			int slots = readInt(file, 12);
+			int record = 0;
+			for (int slot = 0; slot < slots && record == 0; ++slot) {
+				record = readInt(file, 16 + slot * 8 + 4);
+			}
+			for (int slot = 0; slot < slots; ++slot) { //every slot points at the one record
+				file.seek(16 + slot * 8 + 4);
+				file.writeInt(record);
+			}
+		}
+		dict = getDictionary(dictFile);
+		dict.open();
+		assertEquals("def", dict.get("word"));
+		assertEquals(null, dict.get("missing"));
+		dict.close();
+		dictFile.delete();
+	}
+
+	private static int readInt(RandomAccessFile file, long position) throws IOException {
+		file.seek(position);
+		return file.readInt();
+	}
+}
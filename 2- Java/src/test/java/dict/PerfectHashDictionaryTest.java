@@ -0,0 +1,118 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A perfect hash dictionary is built once and can't be written to, so it is not tested as a
+ * {@link PersistentDictionaryTest}.
+ */
+public class PerfectHashDictionaryTest {
+	File sourceFile;
+	File dictFile;
+
+	public PerfectHashDictionaryTest() throws IOException {
+		sourceFile = File.createTempFile("DictTest", ".tmp");
+		dictFile = File.createTempFile("DictTest", ".mph");
+	}
+
+	InMemoryDictionary source(int words) throws IOException {
+		sourceFile.delete();
+		InMemoryDictionary source = new InMemoryDictionary(sourceFile);
+		source.open();
+		for (int i = 0; i < words; ++i) {
+			source.put("word" + i, i % 3 == 0 ? "" : "def" + i);
+		}
+		source.put("\u00e9\ud83d\ude00", "unicode");
+		return source;
+	}
+
+	@Test
+	public void buildTest() throws Exception {
+		InMemoryDictionary source = source(20000);
+		PerfectHashDictionary.build(dictFile, source);
+
+		PerfectHashDictionary dict = new PerfectHashDictionary(dictFile);
+		dict.open();
+		assertEquals(source.size(), dict.size());
+		for (Map.Entry<String, String> entry : source.entrySet()) {
+			assertEquals(entry.getKey(), entry.getValue(), dict.get(entry.getKey()));
+		}
+		assertNull(dict.get("word20000"));
+		assertNull(dict.get(""));
+		assertFalse(dict.containsKey("missing"));
+		assertTrue(dict.containsKey("word0"));
+
+		Iterator<Map.Entry<String, String>> scan = dict.prefixScan("word1999");
+		for (Map.Entry<String, String> entry : source.subMap("word1999", "word199:").entrySet()) {
+			assertEquals(entry, scan.next());
+		}
+		assertFalse(scan.hasNext());
+		dict.close();
+
+		dict.open();
+		assertEquals("unicode", dict.get("\u00e9\ud83d\ude00"));
+		dict.close();
+		dictFile.delete();
+		sourceFile.delete();
+	}
+
+	@Test
+	public void smallDictionariesTest() throws Exception {
+		for (int words = 0; words < 20; ++words) {
+			InMemoryDictionary source = source(words);
+			source.remove("\u00e9\ud83d\ude00");
+			PerfectHashDictionary.build(dictFile, source);
+
+			PerfectHashDictionary dict = new PerfectHashDictionary(dictFile);
+			dict.open();
+			assertEquals(words, dict.size());
+			for (int i = 0; i < words; ++i) {
+				assertEquals(i % 3 == 0 ? "" : "def" + i, dict.get("word" + i));
+			}
+			assertNull(dict.get("word" + words));
+			dict.close();
+		}
+		dictFile.delete();
+		sourceFile.delete();
+	}
+
+	@Test
+	public void readOnlyTest() throws Exception {
+		PerfectHashDictionary.build(dictFile, source(10));
+		PerfectHashDictionary dict = new PerfectHashDictionary(dictFile);
+		dict.open();
+		try {
+			dict.put("word", "def");
+			fail("Changed a perfect hash dictionary");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		dict.close();
+		dictFile.delete();
+		sourceFile.delete();
+	}
+
+	@Test(expected = IOException.class)
+	public void invalidFileTest() throws Exception {
+		InMemoryDictionary text = source(10);
+		text.close(); //a text dictionary file, not a perfect hash one
+		try {
+			new PerfectHashDictionary(sourceFile).open();
+		} finally {
+			sourceFile.delete();
+			dictFile.delete();
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package dict;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -7,12 +8,19 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test a persistent dictionary.
@@ -56,6 +64,28 @@ public abstract class PersistentDictionaryTest {
 		}
 	}
 
+	/**
+	 * Delete the dictionary file, and the files the dictionary kept next to it.
+	 */
+	@After
+	public void deleteFiles() {
+		dictFile.delete();
+		for (File side : sideFiles(dictFile)) {
+			side.delete();
+		}
+	}
+
+	/**
+	 * Return the files a dictionary stored in the file keeps besides it (deltas, logs, indexes, shards,
+	 * segments...). By default these are the files whose name is the name of the dictionary file followed
+	 * by a '.'; subclasses whose dictionaries keep files elsewhere should override this method.
+	 */
+	List<File> sideFiles(File file) {
+		File[] sides = file.getAbsoluteFile().getParentFile().listFiles(
+				(dir, name) -> name.startsWith(file.getName() + "."));
+		return sides == null ? new ArrayList<File>() : Arrays.asList(sides);
+	}
+
 	String[] testWords = { "Second", "First", "CAB", "BBA", "", "1", "4" };
 
 	String[] testDefs = { "Some definition", "another definition", "",
@@ -482,4 +512,196 @@ public abstract class PersistentDictionaryTest {
 		testEquality("Multiple add/remove, open/close cycles", expected, dict);
 	}
 
+	/**
+	 * Compare a scan of the dictionary to the expected entries, in order.
+	 */
+	void testScan(String msg, Map<String, String> expected,
+			Iterator<Map.Entry<String, String>> scan) {
+		for (Map.Entry<String, String> entry : expected.entrySet()) {
+			assertTrue(msg + ": Scan ended early", scan.hasNext());
+			Map.Entry<String, String> actual = scan.next();
+			assertEquals(msg + ": Wrong key", entry.getKey(), actual.getKey());
+			assertEquals(msg + ": Wrong definition for " + entry.getKey(),
+					entry.getValue(), actual.getValue());
+		}
+		assertFalse(msg + ": Scan returned extra entries", scan.hasNext());
+	}
+
+	/**
+	 * Test range and prefix scans, both of stored entries and of changes that
+	 * were not yet persisted.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void rangeScanTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+
+		String[] words = randomStrings(MAX_SIZE, 4);
+		String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+		fillMap(expected, words, defs);
+		fillMap(dict, words, defs);
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < words.length; i += 3) {
+			expected.remove(words[i]);
+			dict.remove(words[i]);
+		}
+		fillMap(expected, addWords, addDefs);
+		fillMap(dict, addWords, addDefs);
+
+		testScan("Full scan", expected, dict.range(null, null));
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			String from = words[rnd.nextInt(words.length)];
+			String to = words[rnd.nextInt(words.length)];
+			if (from.compareTo(to) > 0) {
+				String swap = from;
+				from = to;
+				to = swap;
+			}
+			testScan("Range [" + from + ", " + to + ")",
+					expected.subMap(from, to), dict.range(from, to));
+			testScan("Range from " + from, expected.tailMap(from),
+					dict.range(from, null));
+			testScan("Range to " + to, expected.headMap(to),
+					dict.range(null, to));
+
+			String prefix = from.isEmpty() ? from : from.substring(0, 1);
+			TreeMap<String, String> withPrefix = new TreeMap<String, String>();
+			for (Map.Entry<String, String> entry : expected.entrySet()) {
+				if (entry.getKey().startsWith(prefix)) {
+					withPrefix.put(entry.getKey(), entry.getValue());
+				}
+			}
+			testScan("Prefix " + prefix, withPrefix, dict.prefixScan(prefix));
+		}
+
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Levenshtein distance, computed over the whole table.
+	 */
+	static int editDistance(String a, String b) {
+		int[][] table = new int[a.length() + 1][b.length() + 1];
+		for (int i = 0; i <= a.length(); ++i) {
+			for (int j = 0; j <= b.length(); ++j) {
+				if (i == 0 || j == 0) {
+					table[i][j] = i + j;
+				} else {
+					int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+					table[i][j] = Math.min(Math.min(table[i - 1][j] + 1, table[i][j - 1] + 1),
+							table[i - 1][j - 1] + cost);
+				}
+			}
+		}
+		return table[a.length()][b.length()];
+	}
+
+	/**
+	 * Test that fuzzy lookups return exactly the keys within the distance,
+	 * including changes that were not yet persisted.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void fuzzyGetTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+
+		String[] words = randomStrings(MAX_SIZE, 6);
+		String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+		fillMap(expected, words, defs);
+		fillMap(dict, words, defs);
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < words.length; i += 3) {
+			expected.remove(words[i]);
+			dict.remove(words[i]);
+		}
+
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			String word = i % 2 == 0 ? words[rnd.nextInt(words.length)] : randomStrings(1, 6)[0];
+			int distance = i % 3;
+			TreeMap<String, String> near = new TreeMap<String, String>();
+			for (Map.Entry<String, String> entry : expected.entrySet()) {
+				if (editDistance(word, entry.getKey()) <= distance) {
+					near.put(entry.getKey(), entry.getValue());
+				}
+			}
+			assertEquals("Fuzzy lookup of " + word + " within " + distance, near, dict.fuzzyGet(word, distance));
+		}
+
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Test the batch operations, with a sorted batch into an empty dictionary and an unsorted one
+	 * into a full dictionary.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void batchTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+
+		String[] words = randomStrings(MAX_SIZE, MAX_LEN);
+		String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+		TreeMap<String, String> sorted = new TreeMap<String, String>();
+		fillMap(sorted, words, defs);
+		dict.putAll(sorted);
+		expected.putAll(sorted);
+
+		Map<String, String> unsorted = new HashMap<String, String>();
+		fillMap(unsorted, addWords, addDefs);
+		for (int i = 0; i < words.length; i += 5) {
+			unsorted.put(words[i], "redefined " + i);
+		}
+		dict.putAll(unsorted);
+		expected.putAll(unsorted);
+		assertEquals(expected.size(), dict.size());
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		assertEquals(expected.size(), dict.size());
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < words.length; i += 2) {
+			keys.add(words[i]);
+			keys.add("missing " + words[i]);
+		}
+		TreeMap<String, String> found = new TreeMap<String, String>();
+		for (String key : keys) {
+			if (expected.containsKey(key)) {
+				found.put(key, expected.get(key));
+			}
+		}
+		assertEquals(found, dict.getAll(keys));
+
+		int removed = dict.removeAll(keys);
+		expected.keySet().removeAll(keys);
+		assertEquals(found.size(), removed);
+		testScan("After removeAll", expected, dict.range(null, null));
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		testScan("Reopened", expected, dict.range(null, null));
+		dict.close();
+		dictFile.delete();
+	}
 }
@@ -0,0 +1,166 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PublishingDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new PublishingDictionary(new InMemoryDictionary(dictFile), feedFile());
+	}
+
+	File feedFile() {
+		return new File(dictFile.getPath() + ".feed");
+	}
+
+	/**
+	 * A follower applies each published batch without reloading, and goes on reading across a rewrite
+	 * of the feed.
+	 */
+	@Test
+	public void followTest() throws Exception {
+		dictFile.delete();
+		feedFile().delete();
+		PublishingDictionary dict = new PublishingDictionary(new InMemoryDictionary(dictFile), feedFile());
+		dict.open();
+		dict.put("apple", "fruit");
+		dict.put("kale", "vegetable");
+		dict.close();
+		assertEquals(1, dict.getPublishedSequence());
+
+		FollowerDictionary follower = new FollowerDictionary(feedFile());
+		follower.open();
+		assertEquals(2, follower.size());
+		assertEquals("fruit", follower.get("apple"));
+		assertEquals(1, follower.getAppliedSequence());
+		assertEquals(0, follower.getLagMillis());
+
+		dict.open();
+		dict.remove("kale");
+		dict.put("apple", "red fruit");
+		dict.put("line:break", "one\ntwo");
+		dict.close();
+		assertEquals(1, follower.getAppliedSequence());
+		assertTrue(follower.getLagMillis() >= 0);
+		assertEquals(1, follower.poll());
+		assertEquals(2, follower.getAppliedSequence());
+		assertEquals(2, follower.size());
+		assertEquals("red fruit", follower.get("apple"));
+		assertFalse(follower.containsKey("kale"));
+		assertEquals("one\ntwo", follower.get("line:break"));
+		assertEquals(0, follower.poll());
+
+		// Enough changes to rewrite the feed on the next open: an up-to-date follower skips the snapshot.
+		boolean rewritten = false;
+		for (int round = 0; round < 4; ++round) {
+			long length = feedFile().length();
+			dict.open();
+			rewritten |= feedFile().length() < length;
+			for (int i = 0; i < PublishingDictionary.MIN_SNAPSHOT_RECORDS; ++i) {
+				dict.put("word" + i, "def" + round);
+			}
+			dict.close();
+			assertEquals(1, follower.poll());
+		}
+		assertTrue("The feed was not rewritten", rewritten);
+		assertEquals("def3", follower.get("word7"));
+		dict.open();
+		dict.clear();
+		dict.put("only", "word");
+		dict.close();
+		assertEquals(1, follower.poll());
+		assertEquals(1, follower.size());
+		assertEquals("word", follower.get("only"));
+		assertNull(follower.get("apple"));
+		assertEquals(dict.getPublishedSequence(), follower.getAppliedSequence());
+
+		// A follower opened later loads the snapshot and the batches after it.
+		FollowerDictionary late = new FollowerDictionary(feedFile());
+		late.open();
+		assertEquals(1, late.size());
+		assertEquals("word", late.get("only"));
+		feedFile().delete();
+	}
+
+	/**
+	 * A batch that was published but never written to the dictionary is replaced by a snapshot on the next
+	 * open, so the followers that applied it come back in line with the dictionary.
+	 */
+	@Test
+	public void unappliedBatchTest() throws Exception {
+		dictFile.delete();
+		feedFile().delete();
+		boolean[] crash = {false};
+		PublishingDictionary dict = new PublishingDictionary(new InMemoryDictionary(dictFile) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void close() throws IOException {
+				if (crash[0]) throw new IOException("Died before writing the dictionary");
+				super.close();
+			}
+		}, feedFile());
+		dict.open();
+		dict.put("kept", "yes");
+		dict.close();
+		FollowerDictionary follower = new FollowerDictionary(feedFile());
+		follower.open();
+
+		dict.open();
+		dict.put("lost", "no");
+		crash[0] = true;
+		try {
+			dict.close();
+			fail("The dictionary was written");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(1, follower.poll());
+		assertEquals("no", follower.get("lost")); // published, but the dictionary doesn't have it
+
+		crash[0] = false;
+		dict.open();
+		assertEquals(1, follower.poll());
+		assertNull(follower.get("lost"));
+		assertEquals("yes", follower.get("kept"));
+		assertEquals(dict.getPublishedSequence(), follower.getAppliedSequence());
+		dict.close();
+		feedFile().delete();
+	}
+
+	/**
+	 * A follower that polls in the background catches up on its own.
+	 */
+	@Test
+	public void backgroundPollTest() throws Exception {
+		dictFile.delete();
+		feedFile().delete();
+		PublishingDictionary dict = new PublishingDictionary(new InMemoryDictionary(dictFile), feedFile());
+		dict.open();
+		dict.close();
+		FollowerDictionary follower = new FollowerDictionary(feedFile(), 5);
+		follower.open();
+		assertEquals(0, follower.size());
+
+		dict.open();
+		dict.put("word", "def");
+		dict.close();
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (follower.getAppliedSequence() < dict.getPublishedSequence() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals("def", follower.get("word"));
+		assertEquals(0, follower.getLagMillis());
+		follower.close();
+		feedFile().delete();
+	}
+}
@@ -0,0 +1,64 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedDictionaryTest extends PersistentDictionaryTest {
+	static final int SHARDS = 4;
+
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new ShardedDictionary(dictFile, SHARDS);
+	}
+
+	/**
+	 * Closing after a change only writes to the shard holding the changed key.
+	 */
+	@Test
+	public void dirtyShardTest() throws Exception {
+		dictFile.delete();
+		ShardedDictionary dict = new ShardedDictionary(dictFile, SHARDS);
+		dict.open();
+		for (int i = 0; i < 1000; ++i) {
+			dict.put("word" + i, "def" + i);
+		}
+		dict.close();
+		for (int i = 0; i < SHARDS; ++i) {
+			assertTrue(dict.getShardFile(i).length() > 0);
+		}
+
+		dict.open();
+		dict.put("word0", "new def");
+		dict.close();
+		int written = 0;
+		for (int i = 0; i < SHARDS; ++i) {
+			if (new File(dict.getShardFile(i).getPath() + ".delta").exists()) written++;
+		}
+		assertEquals(1, written);
+
+		// The manifest decides the number of shards of an existing dictionary.
+		ShardedDictionary reopened = new ShardedDictionary(dictFile, 7);
+		reopened.open();
+		assertEquals(SHARDS, reopened.getShardCount());
+		assertEquals(1000, reopened.size());
+		assertEquals("new def", reopened.get("word0"));
+		reopened.close();
+
+		dictFile.delete();
+		dict.open();
+		assertFalse(dict.containsKey("word1"));
+		dict.close();
+		for (int i = 0; i < SHARDS; ++i) {
+			dict.getShardFile(i).delete();
+			new File(dict.getShardFile(i).getPath() + ".delta").delete();
+		}
+		dictFile.delete();
+	}
+}
@@ -0,0 +1,54 @@
+package dict;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingDictionaryTest extends PersistentDictionaryTest {
+	/**
+	 * A small budget, so that the tests spill.
+	 */
+	static final long HEAP_BYTES = 64 << 10;
+
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new SpillingDictionary(dictFile, HEAP_BYTES);
+	}
+
+	/**
+	 * A dictionary many times larger than the budget stays within it, and reads the spilled entries back.
+	 */
+	@Test
+	public void budgetTest() throws Exception {
+		dictFile.delete();
+		SpillingDictionary dict = new SpillingDictionary(dictFile, HEAP_BYTES);
+		dict.open();
+		for (int i = 0; i < 20000; ++i) {
+			dict.put("word" + i, "definition number " + i);
+			assertTrue("Over budget: " + dict.getHeapBytes(), dict.getHeapBytes() <= HEAP_BYTES);
+		}
+		assertTrue("Nothing was spilled", dict.getSegmentCount() > 0);
+
+		for (int round = 0; round < 2; ++round) {
+			for (int i = 0; i < 20000; i += 7) {
+				assertEquals("definition number " + i, dict.get("word" + i));
+				assertTrue("Over budget: " + dict.getHeapBytes(), dict.getHeapBytes() <= HEAP_BYTES);
+			}
+		}
+		assertTrue("Nothing was evicted", dict.getEvictions() > 0);
+		assertEquals(20000, dict.size());
+		dict.close();
+
+		dict.open();
+		assertEquals(20000, dict.size());
+		assertEquals("definition number 19999", dict.get("word19999"));
+		dict.clear();
+		dict.close();
+		dictFile.delete();
+	}
+}
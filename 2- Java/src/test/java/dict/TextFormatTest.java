@@ -0,0 +1,78 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that the chunked parser of the text format reads exactly what a line-by-line parse would.
+ */
+public class TextFormatTest {
+
+	/**
+	 * Reference parser: the line-by-line loader the dictionary used to have.
+	 */
+	static Map<String, String> readLines(File file) throws IOException {
+		Map<String, String> map = new TreeMap<String, String>();
+		try (BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = read.readLine()) != null) {
+				int index = line.indexOf(':');
+				if (index >= 0) {
+					map.put(line.substring(0, index), line.substring(index + 1));
+				}
+			}
+		}
+		return map;
+	}
+
+	@Test
+	public void chunkedReadTest() throws Exception {
+		File file = File.createTempFile("TextFormatTest", ".tmp");
+		String[] breaks = { "\n", "\r\n", "\r" };
+		Random rnd = new Random(19);
+
+		// Large enough to be split into several chunks, with duplicates, empty definitions, extra colons,
+		// lines without a colon, characters of several UTF-8 bytes and lines longer than the read buffer.
+		try (Writer write = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			for (int i = 0; i < 400000; ++i) {
+				int word = rnd.nextInt(100000);
+				switch (i % 50000 == 0 ? 6 : rnd.nextInt(6)) {
+				case 6:
+					char[] longLine = new char[100000 + rnd.nextInt(100000)];
+					Arrays.fill(longLine, 'x');
+					write.write("long" + word + ":" + new String(longLine));
+					break;
+				case 5:
+					write.write("caf\u00e9" + word + ":na\u00efve \u65e5\u672c \ud83d\ude00 " + i);
+					break;
+				case 0:
+					write.write("word" + word + ":");
+					break;
+				case 1:
+					write.write("word" + word + ":a:b::c");
+					break;
+				case 2:
+					write.write("no colon here " + word);
+					break;
+				default:
+					write.write("word" + word + ":definition " + i);
+				}
+				write.write(breaks[rnd.nextInt(breaks.length)]);
+			}
+			write.write("last:line without a break");
+		}
+
+		Map<String, String> actual = new TreeMap<String, String>();
+		TextFormat.read(file, actual);
+		assertEquals(readLines(file), actual);
+		file.delete();
+	}
+}